@@ -0,0 +1,101 @@
+/**
+ * Class for the arithmetic of the built-in SRPN operators, identified by their opcodes
+ * from OperatorRegistry, on operands that are already saturated.
+ * SRPN uses it to evaluate operators and ConstantFolder to pre-compute them, so that a
+ * folded line gives exactly the values the unfolded one would.
+ */
+
+public final class Arithmetic {
+
+    private Arithmetic() {
+    }
+
+    /**
+     * Checks if applying the operator to b as its second operand is an error:
+     * a divide or modulo by zero, or a negative power.
+     */
+    public static boolean isError(int operator, long b) {
+        switch (operator) {
+            case OperatorRegistry.DIVIDE:
+            case OperatorRegistry.MODULO:
+                return b == 0;
+            case OperatorRegistry.POWER:
+                return b < 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Applies an operator to two operands, for which isError is false.
+     * The result is not saturated.
+     */
+    public static long apply(int operator, long a, long b) {
+        switch (operator) {
+            case OperatorRegistry.ADD:
+                return a + b;
+            case OperatorRegistry.SUBTRACT:
+                return a - b;
+            case OperatorRegistry.MULTIPLY:
+                return a * b;
+            case OperatorRegistry.DIVIDE:
+                return a / b;
+            case OperatorRegistry.MODULO:
+                return a % b;
+            case OperatorRegistry.POWER:
+                return power(a, b);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Raises a saturated operand to a saturated, non-negative power, saturating the result.
+     * This gives the same results as saturating (long) Math.pow(a, b), but exactly and
+     * without going through floating point: bases 0, 1, -1 and powers of two are worked out
+     * directly, and any other base by squaring, which stops as soon as the result is known
+     * to pass the operand range, so that even the largest exponents take a few steps.
+     */
+    public static long power(long base, long exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (exponent == 1 || base == 0 || base == 1) {
+            return base;
+        }
+        boolean negative = base < 0 && (exponent & 1) != 0;
+        if (base == -1) {
+            return negative ? -1 : 1;
+        }
+
+        // A power of two is a shift, or saturates once it passes 2^31
+        long magnitude = Math.abs(base);
+        if ((magnitude & (magnitude - 1)) == 0) {
+            long bits = Long.numberOfTrailingZeros(magnitude) * exponent;
+            if (bits >= 31) {
+                return negative ? Constants.MIN_OPERAND_VALUE : Constants.MAX_OPERAND_VALUE;
+            }
+            return negative ? -(1L << bits) : 1L << bits;
+        }
+
+        // Exponentiation by squaring. Every operand fits in 32 bits, so no product overflows a long,
+        // and once the result or the squared base passes the operand range the result only grows
+        long result = 1;
+        while (true) {
+            if ((exponent & 1) != 0) {
+                result *= base;
+                if (result > Constants.MAX_OPERAND_VALUE || result < Constants.MIN_OPERAND_VALUE) {
+                    return negative ? Constants.MIN_OPERAND_VALUE : Constants.MAX_OPERAND_VALUE;
+                }
+            }
+            exponent >>= 1;
+            if (exponent == 0) {
+                return result;
+            }
+            base *= base;
+            if (base > Constants.MAX_OPERAND_VALUE) {
+                return negative ? Constants.MIN_OPERAND_VALUE : Constants.MAX_OPERAND_VALUE;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Operand stack kept in a primitive array sized to the stack limit,
+ * so pushing and popping never allocates. SRPN uses it unless it needs another kind.
+ */
+
+public class ArrayOperandStack extends OperandStack {
+
+    // Operands, with the bottom of the stack at index 0
+    private final long[] values;
+
+    // Number of operands currently on the stack
+    private int size;
+
+    // Constructor for a stack holding at most STACK_LIMIT operands.
+    public ArrayOperandStack() {
+        this(Constants.STACK_LIMIT);
+    }
+
+    // Constructor for a stack holding at most the given number of operands.
+    public ArrayOperandStack(int limit) {
+        values = new long[limit];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int limit() {
+        return values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size >= values.length;
+    }
+
+    @Override
+    public void push(long value) {
+        values[size++] = value;
+        reach(size);
+    }
+
+    @Override
+    public long pop() {
+        return values[--size];
+    }
+
+    @Override
+    public long peek() {
+        return values[size - 1];
+    }
+
+    @Override
+    public long get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Class for evaluating many independent SRPN scripts in parallel on a ForkJoinPool.
+ * Each script runs in its own SRPN instance and its output is captured separately,
+ * then written out in the order the scripts were given, so the combined output is
+ * the same as running the scripts one after another.
+ */
+
+public class BatchEvaluator {
+
+    // Scripts evaluated before their output is written, which bounds the memory held
+    private static final int WINDOW_SIZE = 4096;
+
+    // Bytes of output a script builds up before its buffer is copied into the capture
+    private static final int SCRIPT_BUFFER_BYTES = 8192;
+
+    /**
+     * Outcome of one script: its output, and whether a modulo by zero ended it early.
+     */
+    public static final class Result {
+        private final Path script;
+        private final byte[] output;
+        private final boolean terminated;
+        private final IOException error;
+
+        Result(Path script, byte[] output, boolean terminated, IOException error) {
+            this.script = script;
+            this.output = output;
+            this.terminated = terminated;
+            this.error = error;
+        }
+
+        public Path script() {
+            return script;
+        }
+
+        public byte[] output() {
+            return output;
+        }
+
+        public boolean terminated() {
+            return terminated;
+        }
+
+        /**
+         * Returns the error that stopped the script being read, or null.
+         */
+        public IOException error() {
+            return error;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final boolean multiLineComments;
+
+    // Constructor for an evaluator using the given number of threads.
+    public BatchEvaluator(int parallelism, boolean multiLineComments) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.multiLineComments = multiLineComments;
+    }
+
+    /**
+     * Evaluates the scripts in parallel and returns their results in the order given.
+     */
+    public Result[] evaluate(List<Path> scripts) {
+        Result[] results = new Result[scripts.size()];
+        pool.invoke(new EvaluateRange(scripts, results, 0, scripts.size()));
+        return results;
+    }
+
+    /**
+     * Evaluates the scripts and writes their output to out in the order given.
+     * Returns the number of scripts that ended with a modulo by zero or could not be read.
+     */
+    public int run(List<Path> scripts, OutputStream out) throws IOException {
+        int failures = 0;
+        for (int start = 0; start < scripts.size(); start += WINDOW_SIZE) {
+            List<Path> window = scripts.subList(start, Math.min(scripts.size(), start + WINDOW_SIZE));
+            for (Result result : evaluate(window)) {
+                out.write(result.output());
+                if (result.error() != null) {
+                    System.err.println(result.script() + ": " + result.error().getMessage());
+                }
+                if (result.terminated() || result.error() != null) {
+                    failures++;
+                }
+            }
+        }
+        out.flush();
+        return failures;
+    }
+
+    /**
+     * Stops the threads of the pool.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Evaluates one script in a new SRPN instance, capturing its output.
+     */
+    public Result evaluateScript(Path script) {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        OutputSink out = new BufferedOutputSink(captured, FlushPolicy.END, SCRIPT_BUFFER_BYTES);
+        SRPN srpn = new SRPN(Constants.PROGRAM_CACHE_SIZE, out);
+        srpn.setMultiLineComments(multiLineComments);
+
+        IOException error = null;
+        try {
+            new MappedLineReader(script).forEachLine(line -> {
+                // Lines after a modulo by zero are ignored, as the process would have exited
+                srpn.processCommand(line);
+            });
+        } catch (IOException e) {
+            error = e;
+        }
+        out.flush();
+        return new Result(script, captured.toByteArray(), srpn.isTerminated(), error);
+    }
+
+    /**
+     * Turns the paths given on the command line into a list of scripts.
+     * Directories are replaced by the regular files in them, sorted by name.
+     */
+    public static List<Path> expand(List<String> paths) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        for (String name : paths) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    scripts.addAll(files.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                scripts.add(path);
+            }
+        }
+        return scripts;
+    }
+
+    /**
+     * Task that splits a range of scripts in half until single scripts are left.
+     */
+    private final class EvaluateRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> scripts;
+        private final Result[] results;
+        private final int start;
+        private final int end;
+
+        EvaluateRange(List<Path> scripts, Result[] results, int start, int end) {
+            this.scripts = scripts;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                if (end > start) {
+                    results[start] = evaluateScript(scripts.get(start));
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new EvaluateRange(scripts, results, start, middle),
+                      new EvaluateRange(scripts, results, middle, end));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+
+/**
+ * Output sink that builds lines in a reusable byte buffer before writing them to a stream.
+ * Numbers are formatted straight into the buffer, and the buffer is passed on according
+ * to a FlushPolicy. The bytes written are the same as System.out.println would write.
+ */
+
+public class BufferedOutputSink implements OutputSink {
+
+    // Smallest buffer used, whatever the flush threshold
+    private static final int MIN_BUFFER_SIZE = 8192;
+
+    // Digits of Long.MIN_VALUE, which cannot be negated
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    private final OutputStream out;
+    private final FlushPolicy policy;
+    private final int threshold;
+    private final Charset charset;
+    private final byte[] lineSeparator;
+
+    // Bytes not yet written to the stream
+    private final byte[] buffer;
+    private int count;
+
+    // Constructor for a sink that flushes after every line, like System.out.println.
+    public BufferedOutputSink(OutputStream out) {
+        this(out, FlushPolicy.LINE, MIN_BUFFER_SIZE);
+    }
+
+    // Constructor for a sink with the given policy; threshold is the byte count used by FlushPolicy.BYTES.
+    public BufferedOutputSink(OutputStream out, FlushPolicy policy, int threshold) {
+        this(out, policy, threshold, consoleCharset());
+    }
+
+    // Constructor for a sink that encodes text in the given charset rather than System.out's.
+    public BufferedOutputSink(OutputStream out, FlushPolicy policy, int threshold, Charset charset) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Flush threshold must be positive: " + threshold);
+        }
+        this.out = out;
+        this.policy = policy;
+        this.threshold = threshold;
+        this.charset = charset;
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        this.buffer = new byte[Math.max(MIN_BUFFER_SIZE, threshold)];
+    }
+
+    @Override
+    public void printLine(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            // Anything outside ASCII is encoded the way System.out would encode it
+            if (text.charAt(i) >= 0x80) {
+                write(text.getBytes(charset));
+                endLine();
+                return;
+            }
+        }
+        ensureSpace(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[count++] = (byte) text.charAt(i);
+        }
+        endLine();
+    }
+
+    @Override
+    public void printValue(long value) {
+        // At most 20 characters, including the sign
+        ensureSpace(20);
+        if (value == Long.MIN_VALUE) {
+            System.arraycopy(MIN_LONG, 0, buffer, count, MIN_LONG.length);
+            count += MIN_LONG.length;
+        } else {
+            if (value < 0) {
+                buffer[count++] = '-';
+                value = -value;
+            }
+            // Write the digits backwards from the end of the number
+            int end = count + digitCount(value);
+            int position = end;
+            do {
+                buffer[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            count = end;
+        }
+        endLine();
+    }
+
+    @Override
+    public void printValues(int[] values, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            // At most 11 characters, including the sign, then the line separator
+            ensureSpace(11 + lineSeparator.length);
+            int value = values[i];
+            if (value == Integer.MIN_VALUE) {
+                printValue(value);
+                continue;
+            }
+            if (value < 0) {
+                buffer[count++] = '-';
+                value = -value;
+            }
+            int end = count + digitCount(value);
+            int position = end;
+            do {
+                buffer[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            count = end;
+            System.arraycopy(lineSeparator, 0, buffer, count, lineSeparator.length);
+            count += lineSeparator.length;
+            if (policy == FlushPolicy.LINE || (policy == FlushPolicy.BYTES && count >= threshold)) {
+                flush();
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        writeBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Ends a line and passes the buffer on if the policy says so.
+     */
+    private void endLine() {
+        write(lineSeparator);
+        if (policy == FlushPolicy.LINE || (policy == FlushPolicy.BYTES && count >= threshold)) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds bytes to the buffer, writing out what is already there if they do not fit.
+     */
+    private void write(byte[] bytes) {
+        if (bytes.length > buffer.length) {
+            writeBuffer();
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        ensureSpace(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Writes out the buffer if fewer than the given number of bytes are free.
+     */
+    private void ensureSpace(int bytes) {
+        if (buffer.length - count < bytes) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the stream.
+     */
+    private void writeBuffer() {
+        if (count == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    /**
+     * Returns the number of decimal digits in a non-negative value.
+     */
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Returns the number of decimal digits in a non-negative int, without long division.
+     */
+    private static int digitCount(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Returns the charset System.out encodes with.
+     */
+    private static Charset consoleCharset() {
+        String name = System.getProperty("sun.stdout.encoding");
+        if (name != null && Charset.isSupported(name)) {
+            return Charset.forName(name);
+        }
+        return Charset.defaultCharset();
+    }
+}
@@ -0,0 +1,48 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Class for reading a range of bytes as characters without decoding them into a String.
+ * Each byte is one character, which is exact for ASCII input.
+ * The same instance is pointed at one range after another.
+ */
+
+public final class ByteSlice implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+
+    /**
+     * Points this slice at the bytes of the buffer from start up to end, and returns it.
+     */
+    public ByteSlice set(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = end - start;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return toString().substring(from, to);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Class for the binary checkpoint of an SRPN session: the contents of its stack, the position
+ * of "r" in its random numbers, whether a comment is open across lines and, with words on,
+ * the words defined. The checkpoint is the same size whatever the history of the session
+ * beyond what it holds, so resuming from it takes the same time however long the session ran.
+ *
+ * A checkpoint is MAGIC, whose last byte is the version of the format, followed by big-endian
+ * ints for the flags, the random index, the stack size and the stack limit, the stack values
+ * as longs from the bottom up, the words as WordDictionary.encode writes them if the WORDS
+ * flag is set, and a CRC-32 of everything before it. Version 1 checkpoints, from before words
+ * were saved, have no words and are still read. It is written to a
+ * temporary file which is forced to disk and then moved over the old checkpoint, so a crash
+ * part way through leaves the old checkpoint as it was. It is read back by mapping the file.
+ */
+
+public final class Checkpoint {
+
+    // First bytes of every checkpoint, the last one being the version of the format
+    static final byte[] MAGIC = {'S', 'R', 'P', 'N', 'C', 'K', 'P', 2};
+
+    // Oldest version of the format that can still be read
+    private static final byte FIRST_VERSION = 1;
+
+    // Flag set when the session was inside a comment spanning lines
+    private static final int IN_COMMENT = 1;
+
+    // Flag set when the session had words on, and its words follow the stack values
+    private static final int WORDS = 2;
+
+    private static final int HEADER_SIZE = MAGIC.length + 4 * Integer.BYTES;
+    private static final int CHECKSUM_SIZE = Integer.BYTES;
+
+    private final long[] values;
+    private final int randomIndex;
+    private final boolean inComment;
+    private final byte[] words;
+
+    // Constructor for a checkpoint of the given state, with words encoded by WordDictionary.encode, or null with words off.
+    Checkpoint(long[] values, int randomIndex, boolean inComment, byte[] words) {
+        this.values = values;
+        this.randomIndex = randomIndex;
+        this.inComment = inComment;
+        this.words = words;
+    }
+
+    /**
+     * Returns the stack values, from the bottom up.
+     */
+    long[] values() {
+        return values;
+    }
+
+    int randomIndex() {
+        return randomIndex;
+    }
+
+    boolean inComment() {
+        return inComment;
+    }
+
+    /**
+     * Returns the words as WordDictionary.encode wrote them, or null if the session had words off.
+     */
+    byte[] words() {
+        return words;
+    }
+
+    /**
+     * Writes the checkpoint of a stack with the given limit to the file, replacing it in one move.
+     */
+    void write(Path file, int stackLimit) throws IOException {
+        int wordsSize = words == null ? 0 : words.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + values.length * Long.BYTES + wordsSize + CHECKSUM_SIZE);
+        buffer.put(MAGIC);
+        buffer.putInt((inComment ? IN_COMMENT : 0) | (words == null ? 0 : WORDS));
+        buffer.putInt(randomIndex);
+        buffer.putInt(values.length);
+        buffer.putInt(stackLimit);
+        for (long value : values) {
+            buffer.putLong(value);
+        }
+        if (words != null) {
+            buffer.put(words);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads a checkpoint back from the file, checking its version and checksum,
+     * and that its stack fits within the given limit.
+     */
+    static Checkpoint read(Path file, int stackLimit) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + CHECKSUM_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            byte version = magic[MAGIC.length - 1];
+            if (!Arrays.equals(magic, 0, MAGIC.length - 1, MAGIC, 0, MAGIC.length - 1)
+                    || version < FIRST_VERSION || version > MAGIC[MAGIC.length - 1]) {
+                throw new IOException("Not a checkpoint, or a checkpoint of another version: " + file);
+            }
+            int checksumAt = (int) size - CHECKSUM_SIZE;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().position(0).limit(checksumAt));
+            if ((int) crc.getValue() != buffer.getInt(checksumAt)) {
+                throw new IOException("Checkpoint is corrupt, its checksum does not match: " + file);
+            }
+
+            int flags = buffer.getInt();
+            int randomIndex = buffer.getInt();
+            int stackSize = buffer.getInt();
+            buffer.getInt();
+            long wordsAt = HEADER_SIZE + (long) stackSize * Long.BYTES;
+            boolean hasWords = (flags & WORDS) != 0;
+            if (stackSize < 0 || wordsAt > checksumAt || (!hasWords && wordsAt != checksumAt)
+                    || randomIndex < 0 || randomIndex >= Constants.RANDOM_NUMBERS.length) {
+                throw new IOException("Checkpoint is malformed: " + file);
+            }
+            if (stackSize > stackLimit) {
+                throw new IOException("Checkpoint holds " + stackSize + " values, more than the stack limit of "
+                        + stackLimit + ": " + file);
+            }
+            long[] values = new long[stackSize];
+            buffer.asLongBuffer().get(values);
+            byte[] words = null;
+            if (hasWords) {
+                words = new byte[checksumAt - (int) wordsAt];
+                buffer.position((int) wordsAt);
+                buffer.get(words);
+            }
+            return new Checkpoint(values, randomIndex, (flags & IN_COMMENT) != 0, words);
+        }
+    }
+}
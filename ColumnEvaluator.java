@@ -0,0 +1,345 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class for applying a ColumnProgram to whole columns of inputs, one column per slot.
+ *
+ * Rows are evaluated a block at a time, one instruction at a time across the block: the
+ * stack is a set of columns, one per depth, and each operator is a tight loop over them
+ * with the same saturation as SRPN.performOperation. Divisors and exponents that would be
+ * an error are swapped for harmless ones and the row is flagged, so the loops do not branch
+ * on them; flagged rows are then evaluated again one at a time, following the calculator
+ * exactly. Large columns are split across the threads of a ForkJoinPool.
+ */
+
+public final class ColumnEvaluator {
+
+    // Rows evaluated together, small enough for the stack columns of a block to stay in cache
+    static final int BLOCK_SIZE = 1024;
+
+    // Rows below which a range is not split any further between threads
+    private static final int SPLIT_ROWS = 64 * BLOCK_SIZE;
+
+    private final ForkJoinPool pool;
+
+    // Constructor for an evaluator using the given number of threads.
+    public ColumnEvaluator(int parallelism) {
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * Applies the program to columns of long inputs, given in the order of its slots.
+     */
+    public ColumnResult evaluate(ColumnProgram program, long[]... columns) {
+        return evaluate(program, (Object[]) columns, null);
+    }
+
+    /**
+     * Applies the program to columns of int inputs, given in the order of its slots.
+     */
+    public ColumnResult evaluate(ColumnProgram program, int[]... columns) {
+        return evaluate(program, (Object[]) columns, null);
+    }
+
+    /**
+     * Applies the program to columns that are each an int[] or a long[], writing into the given
+     * result if it has the right number of rows, so that it can be reused, or into a new one.
+     * A formula without slots is evaluated for a single row.
+     */
+    public ColumnResult evaluate(ColumnProgram program, Object[] columns, ColumnResult result) {
+        if (columns.length != program.slotCount()) {
+            throw new IllegalArgumentException("Formula has " + program.slotCount() + " slots but "
+                    + columns.length + " columns were given");
+        }
+        int rows = columns.length == 0 ? 1 : length(columns[0]);
+        for (Object column : columns) {
+            if (length(column) != rows) {
+                throw new IllegalArgumentException("Columns must all have the same length");
+            }
+        }
+
+        if (result == null || result.rows() != rows) {
+            result = new ColumnResult(rows);
+        }
+        if (pool == null || rows <= SPLIT_ROWS) {
+            evaluateRange(program, columns, result, 0, rows);
+        } else {
+            pool.invoke(new EvaluateRange(program, columns, result, 0, rows));
+        }
+        return result;
+    }
+
+    /**
+     * Stops the threads of the pool.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static int length(Object column) {
+        if (column instanceof int[]) {
+            return ((int[]) column).length;
+        }
+        if (column instanceof long[]) {
+            return ((long[]) column).length;
+        }
+        throw new IllegalArgumentException("Columns must be int[] or long[]");
+    }
+
+    /**
+     * Evaluates a range of rows a block at a time, then evaluates again the rows flagged in each block.
+     */
+    static void evaluateRange(ColumnProgram program, Object[] columns, ColumnResult result, int start, int end) {
+        long[][] stack = new long[program.maxDepth()][BLOCK_SIZE];
+        boolean[] saturated = new boolean[program.maxDepth()];
+        int[] flags = new int[BLOCK_SIZE];
+        long[] rowStack = new long[Constants.STACK_LIMIT];
+        long[] values = result.values();
+        result.clearErrors(start, end);
+
+        for (int first = start; first < end; first += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, end - first);
+            int top = evaluateBlock(program, columns, first, count, stack, saturated, flags);
+            System.arraycopy(stack[top], 0, values, first, count);
+
+            int flagged = 0;
+            for (int i = 0; i < count; i++) {
+                flagged |= flags[i];
+            }
+            if (flagged != 0) {
+                for (int i = 0; i < count; i++) {
+                    if (flags[i] != 0) {
+                        evaluateRow(program, columns, first + i, rowStack, result);
+                    }
+                }
+                Arrays.fill(flags, 0, count, 0);
+            }
+        }
+    }
+
+    /**
+     * Evaluates a block of rows, flagging those that report an error.
+     * Operands are saturated when they are used, unless their stack column is known to be
+     * saturated already: int inputs, constants in the operand range and operator results are.
+     * Returns the depth of the stack column holding the results.
+     */
+    private static int evaluateBlock(ColumnProgram program, Object[] columns, int first, int count,
+            long[][] stack, boolean[] saturated, int[] flags) {
+        OperatorRegistry operators = program.operators();
+        int depth = 0;
+        for (int p = 0; p < program.length(); p++) {
+            int instruction = program.instruction(p);
+            switch (ColumnProgram.kind(instruction)) {
+                case ColumnProgram.SLOT:
+                    Object column = columns[ColumnProgram.arg(instruction)];
+                    saturated[depth] = column instanceof int[];
+                    load(column, first, count, stack[depth++]);
+                    break;
+                case ColumnProgram.CONSTANT:
+                    long constant = program.constant(instruction);
+                    saturated[depth] = constant == saturate(constant);
+                    Arrays.fill(stack[depth++], 0, count, constant);
+                    break;
+                default:
+                    int operator = ColumnProgram.arg(instruction);
+                    int arity = operators.arity(operator);
+                    for (int d = depth - arity; d < depth; d++) {
+                        if (!saturated[d]) {
+                            saturate(stack[d], count);
+                        }
+                    }
+                    if (arity == 1) {
+                        applyUnary(operators, operator, stack[depth - 1], count);
+                    } else {
+                        applyBinary(operators, operator, stack[depth - 2], stack[depth - 1], count, flags);
+                        depth--;
+                    }
+                    saturated[depth - 1] = true;
+                    break;
+            }
+        }
+        return depth - 1;
+    }
+
+    /**
+     * Copies a block of a column into a stack column.
+     */
+    private static void load(Object column, int first, int count, long[] into) {
+        if (column instanceof int[]) {
+            int[] ints = (int[]) column;
+            for (int i = 0; i < count; i++) {
+                into[i] = ints[first + i];
+            }
+        } else {
+            System.arraycopy((long[]) column, first, into, 0, count);
+        }
+    }
+
+    /**
+     * Applies a binary operator across a block of saturated operands, leaving the results in a.
+     * Saturated operands fit in an int, so division is done on ints, which is much quicker.
+     * Rows whose divisor is 0 or whose exponent is negative are flagged.
+     */
+    private static void applyBinary(OperatorRegistry operators, int operator, long[] a, long[] b, int count, int[] flags) {
+        switch (operator) {
+            case OperatorRegistry.ADD:
+                for (int i = 0; i < count; i++) {
+                    a[i] = saturate(a[i] + b[i]);
+                }
+                break;
+            case OperatorRegistry.SUBTRACT:
+                for (int i = 0; i < count; i++) {
+                    a[i] = saturate(a[i] - b[i]);
+                }
+                break;
+            case OperatorRegistry.MULTIPLY:
+                for (int i = 0; i < count; i++) {
+                    a[i] = saturate(a[i] * b[i]);
+                }
+                break;
+            case OperatorRegistry.DIVIDE:
+                for (int i = 0; i < count; i++) {
+                    int dividend = (int) a[i];
+                    int divisor = (int) b[i];
+                    int zero = divisor == 0 ? 1 : 0;
+                    flags[i] |= zero;
+                    // Only MIN_VALUE / -1 leaves the int range, and it saturates to MAX_VALUE
+                    a[i] = divisor == -1 ? saturate(-(long) dividend) : dividend / (divisor | zero);
+                }
+                break;
+            case OperatorRegistry.MODULO:
+                for (int i = 0; i < count; i++) {
+                    int divisor = (int) b[i];
+                    int zero = divisor == 0 ? 1 : 0;
+                    flags[i] |= zero;
+                    a[i] = (int) a[i] % (divisor | zero);
+                }
+                break;
+            case OperatorRegistry.POWER:
+                for (int i = 0; i < count; i++) {
+                    long exponent = b[i];
+                    flags[i] |= (int) (exponent >>> 63);
+                    a[i] = saturate(Arithmetic.power(a[i], Math.max(exponent, 0)));
+                }
+                break;
+            default:
+                // Registered operators never report errors
+                for (int i = 0; i < count; i++) {
+                    a[i] = saturate(operators.apply(operator, a[i], b[i]));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Applies a registered unary operator across a block of saturated operands, in place.
+     */
+    private static void applyUnary(OperatorRegistry operators, int operator, long[] a, int count) {
+        for (int i = 0; i < count; i++) {
+            a[i] = saturate(operators.apply(operator, a[i]));
+        }
+    }
+
+    /**
+     * Saturates a block of a stack column in place.
+     */
+    private static void saturate(long[] column, int count) {
+        for (int i = 0; i < count; i++) {
+            column[i] = saturate(column[i]);
+        }
+    }
+
+    /**
+     * Evaluates a single row the way SRPN would, for rows that report errors.
+     */
+    private static void evaluateRow(ColumnProgram program, Object[] columns, int row, long[] stack,
+            ColumnResult result) {
+        OperatorRegistry operators = program.operators();
+        int error = ColumnResult.NO_ERROR;
+        int depth = 0;
+        for (int p = 0; p < program.length(); p++) {
+            int instruction = program.instruction(p);
+            int kind = ColumnProgram.kind(instruction);
+            if (kind != ColumnProgram.OPERATOR) {
+                if (depth == stack.length) {
+                    error = firstError(error, Errors.STACK_OVERFLOW);
+                    continue;
+                }
+                Object column = kind == ColumnProgram.SLOT ? columns[ColumnProgram.arg(instruction)] : null;
+                stack[depth++] = column == null ? program.constant(instruction)
+                        : column instanceof int[] ? ((int[]) column)[row] : ((long[]) column)[row];
+                continue;
+            }
+
+            // Errors only ever leave more on the stack than the formula expects, so this never underflows
+            int operator = ColumnProgram.arg(instruction);
+            if (operators.arity(operator) == 1) {
+                stack[depth - 1] = saturate(operators.apply(operator, saturate(stack[depth - 1])));
+                continue;
+            }
+            long b = saturate(stack[--depth]);
+            long a = saturate(stack[--depth]);
+            if (operator >= OperatorRegistry.FIRST_EXTENSION) {
+                stack[depth++] = saturate(operators.apply(operator, a, b));
+            } else if (!Arithmetic.isError(operator, b)) {
+                stack[depth++] = saturate(Arithmetic.apply(operator, a, b));
+            } else if (operator == OperatorRegistry.MODULO) {
+                // The calculator exits here, so the rest of the row is not evaluated
+                result.set(row, depth > 0 ? stack[depth - 1] : 0, firstError(error, Errors.MODULO_BY_ZERO));
+                return;
+            } else {
+                // A divide by zero or negative power leaves both operands on the stack
+                error = firstError(error, operator == OperatorRegistry.DIVIDE ? Errors.DIVIDE_BY_ZERO : Errors.NEGATIVE_POWER);
+                stack[depth++] = a;
+                stack[depth++] = b;
+            }
+        }
+        result.set(row, stack[depth - 1], error);
+    }
+
+    private static int firstError(int error, int next) {
+        return error == ColumnResult.NO_ERROR ? next : error;
+    }
+
+    /**
+     * Clamps a value to the operand range, without branching.
+     */
+    private static long saturate(long value) {
+        return Math.min(Math.max(value, Constants.MIN_OPERAND_VALUE), Constants.MAX_OPERAND_VALUE);
+    }
+
+    /**
+     * Task that splits a range of rows in half, on block boundaries, until it is small enough to evaluate.
+     */
+    private static final class EvaluateRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ColumnProgram program;
+        private final Object[] columns;
+        private final ColumnResult result;
+        private final int start;
+        private final int end;
+
+        EvaluateRange(ColumnProgram program, Object[] columns, ColumnResult result, int start, int end) {
+            this.program = program;
+            this.columns = columns;
+            this.result = result;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SPLIT_ROWS) {
+                evaluateRange(program, columns, result, start, end);
+                return;
+            }
+            int middle = start + ((end - start) / 2 / BLOCK_SIZE) * BLOCK_SIZE;
+            invokeAll(new EvaluateRange(program, columns, result, start, middle),
+                      new EvaluateRange(program, columns, result, middle, end));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class for a formula compiled once to be applied to whole columns of inputs by ColumnEvaluator,
+ * such as "$price $quantity * 100 /".
+ *
+ * A formula is a list of tokens separated by whitespace: integer literals, named input slots
+ * written "$name", and operators of the given OperatorRegistry. Unlike a calculator line, tokens
+ * are not split out of merged input such as "3+4", and commands are not allowed, except for
+ * a final "=" which is ignored as the result of a row is always the value left on top.
+ *
+ * The depth of the stack before each instruction is known when the formula is compiled, so a
+ * formula that would underflow, overflow or leave nothing on the stack is rejected then. Rows
+ * that report an error at run time leave their operands on the stack and carry on, which changes
+ * the depth for that row alone; ColumnEvaluator runs those rows one at a time instead.
+ */
+
+public final class ColumnProgram {
+
+    // Kinds of instruction, held in the low bits of an instruction with its argument above them
+    static final int SLOT = 0;
+    static final int CONSTANT = 1;
+    static final int OPERATOR = 2;
+
+    private static final int KIND_BITS = 2;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    private final String formula;
+    private final OperatorRegistry operators;
+    private final int[] code;
+    private final long[] constants;
+    private final String[] slots;
+    private final int maxDepth;
+
+    private ColumnProgram(String formula, OperatorRegistry operators, int[] code, long[] constants,
+            String[] slots, int maxDepth) {
+        this.formula = formula;
+        this.operators = operators;
+        this.code = code;
+        this.constants = constants;
+        this.slots = slots;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Compiles a formula using the built-in operators.
+     */
+    public static ColumnProgram compile(String formula) {
+        return compile(formula, OperatorRegistry.standard());
+    }
+
+    /**
+     * Compiles a formula using the operators of the given registry.
+     * Throws IllegalArgumentException if a token is not recognised or the stack would go wrong.
+     */
+    public static ColumnProgram compile(String formula, OperatorRegistry operators) {
+        List<String> slots = new ArrayList<>();
+        int[] code = new int[8];
+        long[] constants = new long[8];
+        int length = 0;
+        int constantCount = 0;
+        int depth = 0;
+        int maxDepth = 0;
+
+        String[] tokens = formula.trim().split("\\s+");
+        for (int t = 0; t < tokens.length; t++) {
+            String token = tokens[t];
+            if (token.isEmpty()) {
+                continue;
+            }
+            int instruction;
+            if (token.charAt(0) == '$' && token.length() > 1) {
+                int slot = slots.indexOf(token.substring(1));
+                if (slot < 0) {
+                    slot = slots.size();
+                    slots.add(token.substring(1));
+                }
+                instruction = instruction(SLOT, slot);
+                depth++;
+            } else if (isLiteral(token)) {
+                if (constantCount == constants.length) {
+                    constants = Arrays.copyOf(constants, constantCount * 2);
+                }
+                constants[constantCount] = Token.parseOperand(token);
+                instruction = instruction(CONSTANT, constantCount++);
+                depth++;
+            } else if (token.length() == 1 && token.charAt(0) == '=' && t == tokens.length - 1) {
+                if (depth == 0) {
+                    throw new IllegalArgumentException("Formula leaves nothing on the stack: " + formula);
+                }
+                continue;
+            } else {
+                int opcode = token.length() == 1 ? operators.opcodeOf(token.charAt(0)) : OperatorRegistry.NONE;
+                if (opcode == OperatorRegistry.NONE || operators.isCommand(opcode)) {
+                    throw new IllegalArgumentException("Unrecognised token \"" + token + "\" in formula: " + formula);
+                }
+                int arity = operators.arity(opcode);
+                if (depth < arity) {
+                    throw new IllegalArgumentException("Stack underflow at \"" + token + "\" in formula: " + formula);
+                }
+                instruction = instruction(OPERATOR, opcode);
+                depth = depth - arity + 1;
+            }
+            if (depth > Constants.STACK_LIMIT) {
+                throw new IllegalArgumentException("Stack overflow at \"" + token + "\" in formula: " + formula);
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = instruction;
+        }
+        if (depth == 0) {
+            throw new IllegalArgumentException("Formula leaves nothing on the stack: " + formula);
+        }
+        return new ColumnProgram(formula, operators, Arrays.copyOf(code, length),
+                Arrays.copyOf(constants, constantCount), slots.toArray(new String[0]), maxDepth);
+    }
+
+    /**
+     * Checks if a token is an integer literal: an optional "-" followed by digits only.
+     */
+    private static boolean isLiteral(String token) {
+        int start = token.charAt(0) == '-' ? 1 : 0;
+        if (start == token.length()) {
+            return false;
+        }
+        for (int i = start; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int instruction(int kind, int arg) {
+        return arg << KIND_BITS | kind;
+    }
+
+    static int kind(int instruction) {
+        return instruction & KIND_MASK;
+    }
+
+    static int arg(int instruction) {
+        return instruction >>> KIND_BITS;
+    }
+
+    public String formula() {
+        return formula;
+    }
+
+    public OperatorRegistry operators() {
+        return operators;
+    }
+
+    /**
+     * Returns the number of named input slots, each of which needs a column.
+     */
+    public int slotCount() {
+        return slots.length;
+    }
+
+    /**
+     * Returns the name of a slot, without its "$", in the order slots first appear in the formula.
+     */
+    public String slotName(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * Returns the index of the slot with the given name, or -1 if the formula does not use it.
+     */
+    public int slotIndex(String name) {
+        return Arrays.asList(slots).indexOf(name);
+    }
+
+    int length() {
+        return code.length;
+    }
+
+    int instruction(int index) {
+        return code[index];
+    }
+
+    long constant(int instruction) {
+        return constants[arg(instruction)];
+    }
+
+    /**
+     * Returns the deepest the stack gets for a row without errors.
+     */
+    int maxDepth() {
+        return maxDepth;
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.Arrays;
+
+/**
+ * Class for the output columns of a ColumnProgram applied by ColumnEvaluator: the value
+ * left on top of the stack for each row, and the code from Errors of the first error the
+ * row reported, or NO_ERROR.
+ *
+ * A row that reports a divide by zero or negative power carries on as the calculator would,
+ * with its operands left on the stack, so its value is still the one "=" would print at the
+ * end of the formula. A modulo by zero ends the row, and its value is whatever was left on
+ * top of the stack then, or 0 if it was empty.
+ */
+
+public final class ColumnResult {
+
+    // Error code of a row that reported no error
+    public static final byte NO_ERROR = -1;
+
+    private final long[] values;
+    private final byte[] errors;
+
+    // Constructor for the output columns of the given number of rows
+    public ColumnResult(int rows) {
+        this.values = new long[rows];
+        this.errors = new byte[rows];
+    }
+
+    public int rows() {
+        return values.length;
+    }
+
+    public long value(int row) {
+        return values[row];
+    }
+
+    public boolean hasError(int row) {
+        return errors[row] != NO_ERROR;
+    }
+
+    /**
+     * Returns the code from Errors of the first error the row reported, or NO_ERROR.
+     */
+    public int error(int row) {
+        return errors[row];
+    }
+
+    /**
+     * Returns the number of rows that reported an error.
+     */
+    public int errorCount() {
+        int count = 0;
+        for (byte error : errors) {
+            if (error != NO_ERROR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the column of values, which is not copied.
+     */
+    public long[] values() {
+        return values;
+    }
+
+    /**
+     * Returns the column of error codes, which is not copied.
+     */
+    public byte[] errors() {
+        return errors;
+    }
+
+    /**
+     * Marks a range of rows as having no error, before they are evaluated.
+     */
+    void clearErrors(int start, int end) {
+        Arrays.fill(errors, start, end, NO_ERROR);
+    }
+
+    void set(int row, long value, int error) {
+        values[row] = value;
+        errors[row] = (byte) error;
+    }
+}
@@ -1,5 +1,3 @@
-import java.util.Stack;
-
 /**
  * This class contains various methods that handle the commands
  * ("r", "d", "=") for the SRPN calculator.
@@ -10,56 +8,65 @@ public class Commands {
    /**
     * Get the next random number from a predefined list.
     */
-   public static String getNextRandom(int currentRandomIndex) {
-      long number = Constants.RANDOM_NUMBERS[currentRandomIndex];
-      return Long.toString(number);
+   public static long getNextRandom(int currentRandomIndex) {
+      return Constants.RANDOM_NUMBERS[currentRandomIndex];
    }
 
    /**
     * Handle "r" command.
+    * Returns false if the stack was full, so that the overflow can be counted.
     */
-   public static void handleRandom(Stack<String> stack, int currentRandomIndex) {
+   public static boolean handleRandom(OperandStack stack, int currentRandomIndex, EvalResult result) {
       // Get the next random number
-      String number = getNextRandom(currentRandomIndex);
+      long number = getNextRandom(currentRandomIndex);
 
       // Check if stack is full
-      if (stack.size() >= Constants.STACK_LIMIT) {
-         Errors.displayStackOverflowError();
+      if (stack.isFull()) {
+         result.addError(Errors.STACK_OVERFLOW);
+         return false;
       } 
       // Push random number to the stack
-      else {
-         stack.push(number);
-      }
+      stack.push(number);
+      return true;
    }
 
    /**
     * Handle "d" command (prints the content of the stack).
     */
-   public static void printStack(Stack<String> stack) {
+   public static void printStack(OperandStack stack, EvalResult result) {
       // Check if stack is empty
       if (stack.isEmpty()) {
-         System.out.println(Constants.MIN_OPERAND_VALUE);
+         result.addValue(Constants.MIN_OPERAND_VALUE);
       } 
       // Print each element in the stack
       else {
-         for (String item : stack) {
-            System.out.println(item); 
-            }
+         for (int i = 0; i < stack.size(); i++) {
+            result.addValue(stack.get(i));
+         }
       }
    }
 
+   /**
+    * Handle "d" command for a deep stack, writing its contents straight to the output
+    * in bulk rather than holding millions of values in the result first.
+    */
+   public static void printStack(OffHeapOperandStack stack, OutputSink out) {
+      stack.printTo(out);
+   }
+
    /**
     * Handle "=" command.
+    * Returns false if the stack was empty, so that the error can be counted.
     */
-   public static void printResult(Stack<String> stack) {
+   public static boolean printResult(OperandStack stack, EvalResult result) {
       // Check if stack is empty
       if (stack.isEmpty()) {
-         Errors.displayEmptyStackError();
+         result.addError(Errors.EMPTY_STACK);
+         return false;
       } 
       // Print the element on top of the stack
-      else {
-         System.out.println((String)stack.peek());
-      }
+      result.addValue(stack.peek());
+      return true;
    }
 }
    
\ No newline at end of file
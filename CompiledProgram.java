@@ -0,0 +1,21 @@
+/**
+ * Interface for a line compiled to JVM bytecode by ProgramCompiler, which SRPN runs in place
+ * of interpreting the line's Program once the line has run often enough.
+ *
+ * A compiled line only handles the case where nothing on it goes wrong. Before it changes
+ * anything it checks that the stack is deep enough and has room for the line, and that no
+ * divide, modulo or power will fail; if any check fails it returns false, and the line is
+ * interpreted instead, which reports the error exactly as it always has.
+ */
+
+public interface CompiledProgram {
+
+    // Stands in for a line that cannot be compiled, so that it is not tried again
+    CompiledProgram INTERPRETED = (stack, result) -> false;
+
+    /**
+     * Runs the line against the stack, adding the values it prints to the result.
+     * Returns false, having changed nothing, if the line has to be interpreted instead.
+     */
+    boolean execute(OperandStack stack, EvalResult result);
+}
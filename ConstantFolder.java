@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+/**
+ * Class for pre-computing the constant runs of a compiled line, such as "3 4 + 5 *".
+ *
+ * A run is a stretch of pushes and operators that only uses operands pushed within it,
+ * so its outcome does not depend on what was on the stack before. Runs are simulated
+ * with the same saturation and Arithmetic as SRPN, and each run containing at least one
+ * operator gets a FOLD instruction in front of it that pushes the values it leaves.
+ *
+ * Nothing observable is folded: a run ends before a command ("d", "=" or "r"), before an
+ * operator that would underflow, and before an operator that would report an error, which
+ * is left to execute as written. Whether a run would overflow the stack depends on how
+ * full the stack is when it starts, so that is checked when the FOLD executes, using the
+ * peak depth the run reaches; if there is no room, the run executes as written instead.
+ */
+
+public final class ConstantFolder {
+
+    // Simulated stack of the current run, from its start
+    private long[] values = new long[16];
+    private int depth;
+    private int peak;
+    private int operators;
+    private int runStart;
+
+    // The folded code, constants and folds being built
+    private int[] code;
+    private int[] arguments;
+    private int codeLength;
+    private long[] constants;
+    private int constantCount;
+    private int[] foldLengths = new int[4];
+    private int[] foldPeaks = new int[4];
+    private int[] foldFirstValues = new int[4];
+    private int[] foldValueCounts = new int[4];
+    private int foldCount;
+
+    private ConstantFolder() {
+    }
+
+    /**
+     * Returns the program with its constant runs folded, or the program itself if it has none.
+     */
+    public static Program fold(Program program) {
+        return new ConstantFolder().foldRuns(program);
+    }
+
+    /**
+     * Finds the runs of the program and folds them.
+     */
+    private Program foldRuns(Program program) {
+        code = new int[program.length() + 4];
+        arguments = new int[code.length];
+        constants = new long[program.constantCount() + 4];
+        for (int i = 0; i < program.constantCount(); i++) {
+            constants[constantCount++] = program.constantAt(i);
+        }
+
+        for (int i = 0; i < program.length(); i++) {
+            int instruction = program.instruction(i);
+            int kind = Program.kind(instruction);
+            if (kind == Program.PUSH) {
+                push(program.constant(i));
+                continue;
+            }
+            // Only the built-in operators are folded, registered ones are left to execute as written
+            int operator = Program.opcode(instruction);
+            if (kind == Program.OPERATOR && operator < OperatorRegistry.FIRST_EXTENSION && depth >= Constants.MIN_STACK_SIZE) {
+                // Operands are saturated when they are used, as in SRPN.performOperation
+                long b = Token.saturateOperand(values[depth - 1]);
+                long a = Token.saturateOperand(values[depth - 2]);
+                if (!Arithmetic.isError(operator, b)) {
+                    depth--;
+                    values[depth - 1] = Token.saturateOperand(Arithmetic.apply(operator, a, b));
+                    operators++;
+                    continue;
+                }
+            }
+            // Commands, underflows and errors end the run and execute as written
+            endRun(program, i);
+            emit(instruction, 0);
+            runStart = i + 1;
+        }
+        endRun(program, program.length());
+
+        if (foldCount == 0) {
+            return program;
+        }
+        char[] unrecognised = new char[program.unrecognisedCount()];
+        for (int i = 0; i < unrecognised.length; i++) {
+            unrecognised[i] = program.unrecognised(i);
+        }
+        return new Program(Arrays.copyOf(code, codeLength), Arrays.copyOf(arguments, codeLength),
+                Arrays.copyOf(constants, constantCount), unrecognised,
+                Arrays.copyOf(foldLengths, foldCount), Arrays.copyOf(foldPeaks, foldCount),
+                Arrays.copyOf(foldFirstValues, foldCount), Arrays.copyOf(foldValueCounts, foldCount));
+    }
+
+    /**
+     * Pushes an operand onto the simulated stack of the run.
+     */
+    private void push(long value) {
+        if (depth == values.length) {
+            values = Arrays.copyOf(values, depth * 2);
+        }
+        values[depth++] = value;
+        peak = Math.max(peak, depth);
+    }
+
+    /**
+     * Ends the run before the given instruction, emitting a FOLD for it if it applies an operator,
+     * followed by its instructions as written.
+     */
+    private void endRun(Program program, int end) {
+        if (operators > 0) {
+            if (foldCount == foldLengths.length) {
+                foldLengths = Arrays.copyOf(foldLengths, foldCount * 2);
+                foldPeaks = Arrays.copyOf(foldPeaks, foldCount * 2);
+                foldFirstValues = Arrays.copyOf(foldFirstValues, foldCount * 2);
+                foldValueCounts = Arrays.copyOf(foldValueCounts, foldCount * 2);
+            }
+            foldLengths[foldCount] = end - runStart;
+            foldPeaks[foldCount] = peak;
+            foldFirstValues[foldCount] = constantCount;
+            foldValueCounts[foldCount] = depth;
+            for (int i = 0; i < depth; i++) {
+                if (constantCount == constants.length) {
+                    constants = Arrays.copyOf(constants, constantCount * 2);
+                }
+                constants[constantCount++] = values[i];
+            }
+            emit(Program.instruction(Program.FOLD, 0), foldCount++);
+        }
+        for (int i = runStart; i < end; i++) {
+            emit(program.instruction(i), program.argument(i));
+        }
+        depth = 0;
+        peak = 0;
+        operators = 0;
+    }
+
+    /**
+     * Appends an instruction to the folded code, with the number of its constant or fold if it has one.
+     */
+    private void emit(int instruction, int argument) {
+        if (codeLength == code.length) {
+            code = Arrays.copyOf(code, codeLength * 2);
+            arguments = Arrays.copyOf(arguments, codeLength * 2);
+        }
+        code[codeLength] = instruction;
+        arguments[codeLength++] = argument;
+    }
+}
@@ -1,6 +1,3 @@
-import java.util.HashMap;
-import java.util.Map;
-
 // /**
 //  * Class for constants used across the SRPN calculator.
 //  */
@@ -22,23 +19,22 @@ public final class Constants {
     public static final int STACK_LIMIT = 23;
     public static final int MIN_STACK_SIZE = 2;
 
+    // Default number of compiled lines kept by each SRPN instance.
+    public static final int PROGRAM_CACHE_SIZE = 4096;
+
+    // Characters read at a time by SRPN.processStream.
+    public static final int STREAM_CHUNK_SIZE = 64 * 1024;
+
+    // Most characters, or runs of operators, SRPN.processStream holds back within a line.
+    public static final int STREAM_HOLD_LIMIT = 1 << 20;
+
+    // Lines evaluated for each one whose latency is recorded in the metrics, unless "--metrics-sample" gives another.
+    public static final int METRICS_SAMPLE_INTERVAL = 64;
+
+    // Lines evaluated for each time the metrics are published to other threads, or the sample interval if that is longer.
+    public static final int METRICS_PUBLISH_INTERVAL = 1024;
+
     public static final String SPACE = " ";
     public static final String COMMENT_REGEX = "#[^#]*#";
     public static final String MULTIPLE_SPACES_REGEX = " +";
-
-    // Operator precedence map
-    static final Map<Character, Integer> PRECEDENCE = new HashMap<>();
-
-    static {
-        // Set operator precedence values
-        PRECEDENCE.put('+', 1);
-        PRECEDENCE.put('-', 1);
-        PRECEDENCE.put('*', 2);
-        PRECEDENCE.put('/', 2);
-        PRECEDENCE.put('%', 2);
-        PRECEDENCE.put('^', 3);
-        PRECEDENCE.put('r', 1);
-        PRECEDENCE.put('d', 1);
-        PRECEDENCE.put('=', 5);
-    }
 }
@@ -0,0 +1,84 @@
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Output sink that keeps a CRC-32 and a byte count of what is written to it since the last
+ * reset, passing everything on to another sink, or dropping it if there is none.
+ * Lines are digested as UTF-8 text ending in "\n", whatever the platform's line separator,
+ * so the same output gives the same digest everywhere. TraceRecorder digests the output of
+ * each recorded line this way, and TraceReplayer compares it with the replayed output.
+ */
+
+public class DigestOutputSink implements OutputSink {
+
+    private final OutputSink out;
+    private final CRC32 digest = new CRC32();
+    private long bytes;
+
+    // Scratch for the digits of a value, formatted backwards from the end
+    private final byte[] digits = new byte[21];
+
+    // Constructor for a sink passing output on to out, which may be null to drop it.
+    public DigestOutputSink(OutputSink out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a new digest.
+     */
+    public void reset() {
+        digest.reset();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the CRC-32 of the output since the last reset.
+     */
+    public int crc() {
+        return (int) digest.getValue();
+    }
+
+    /**
+     * Returns the number of bytes output since the last reset.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void printLine(String text) {
+        byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+        digest.update(encoded);
+        digest.update('\n');
+        bytes += encoded.length + 1;
+        if (out != null) {
+            out.printLine(text);
+        }
+    }
+
+    @Override
+    public void printValue(long value) {
+        int start = digits.length;
+        digits[--start] = '\n';
+        long remaining = value;
+        do {
+            digits[--start] = (byte) ('0' + Math.abs(remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        digest.update(digits, start, digits.length - start);
+        bytes += digits.length - start;
+        if (out != null) {
+            out.printValue(value);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (out != null) {
+            out.flush();
+        }
+    }
+}
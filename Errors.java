@@ -1,40 +1,119 @@
 // /**
 //  * Class for displaying errors in the SRPN calculator.
 //  * This class provides static methods to display various errors that may occur during 
-//  * the calculation process.
+//  * the calculation process, written to the given output sink.
 //  */
 
 
 public final class Errors {
 
+    // Codes for each kind of error, used to count them
+    public static final int EMPTY_STACK = 0;
+    public static final int STACK_OVERFLOW = 1;
+    public static final int STACK_UNDERFLOW = 2;
+    public static final int DIVIDE_BY_ZERO = 3;
+    public static final int MODULO_BY_ZERO = 4;
+    public static final int NEGATIVE_POWER = 5;
+    public static final int INVALID_OPERATOR = 6;
+    public static final int INVALID_DEFINITION = 7;
+    public static final int LINE_TOO_LONG = 8;
+    public static final int NOTHING_TO_UNDO = 9;
+
+    // Number of error codes, and their names by code
+    public static final int ERROR_TYPES = 10;
+    private static final String[] NAMES = {
+        "empty_stack", "stack_overflow", "stack_underflow", "divide_by_zero",
+        "modulo_by_zero", "negative_power", "invalid_operator", "invalid_definition", "line_too_long",
+        "nothing_to_undo"
+    };
+
     private Errors() {
     }
+
+    /**
+     * Returns the name of an error code.
+     */
+    public static String name(int error) {
+       return NAMES[error];
+    }
  
-    public static void displayEmptyStackError() {
-       System.out.println("Stack empty.");
+    /**
+     * Displays the error with the given code; c is the unrecognised character of an INVALID_OPERATOR.
+     */
+    public static void display(int error, char c, OutputSink out) {
+       switch (error) {
+          case EMPTY_STACK:
+             displayEmptyStackError(out);
+             break;
+          case STACK_OVERFLOW:
+             displayStackOverflowError(out);
+             break;
+          case STACK_UNDERFLOW:
+             displayStackUnderflowError(out);
+             break;
+          case DIVIDE_BY_ZERO:
+             displayDivideByZeroError(out);
+             break;
+          case MODULO_BY_ZERO:
+             displayModuloByZeroError(out);
+             break;
+          case NEGATIVE_POWER:
+             displayNegativePowerError(out);
+             break;
+          case INVALID_OPERATOR:
+             displayInvalidOperatorError(String.valueOf(c), out);
+             break;
+          case INVALID_DEFINITION:
+             displayInvalidDefinitionError(out);
+             break;
+          case LINE_TOO_LONG:
+             displayLineTooLongError(out);
+             break;
+          case NOTHING_TO_UNDO:
+             displayNothingToUndoError(out);
+             break;
+          default:
+             throw new IllegalArgumentException("Unknown error " + error);
+       }
+    }
+
+    public static void displayEmptyStackError(OutputSink out) {
+       out.printLine("Stack empty.");
     }
  
-    public static void displayStackOverflowError() {
-       System.out.println("Stack overflow.");
+    public static void displayStackOverflowError(OutputSink out) {
+       out.printLine("Stack overflow.");
     }
  
-    public static void displayStackUnderflowError() {
-       System.out.println("Stack underflow.");
+    public static void displayStackUnderflowError(OutputSink out) {
+       out.printLine("Stack underflow.");
     }
  
-    public static void displayDivideByZeroError() {
-       System.out.println("Divide by 0.");
+    public static void displayDivideByZeroError(OutputSink out) {
+       out.printLine("Divide by 0.");
     }
 
-    public static void displayModuloByZeroError() {
-      System.out.println("Floating point exception (core dumped)");
+    public static void displayModuloByZeroError(OutputSink out) {
+      out.printLine("Floating point exception (core dumped)");
    }
  
-    public static void displayNegativePowerError() {
-       System.out.println("Negative power.");
+    public static void displayNegativePowerError(OutputSink out) {
+       out.printLine("Negative power.");
     }
  
-    public static void displayInvalidOperatorError(String token) {
-       System.out.println("Unrecognised operator or operand \"" + token + "\".");
+    public static void displayInvalidOperatorError(String token, OutputSink out) {
+       out.printLine("Unrecognised operator or operand \"" + token + "\".");
+    }
+
+    public static void displayInvalidDefinitionError(OutputSink out) {
+       out.printLine("Invalid word definition.");
+    }
+
+    public static void displayLineTooLongError(OutputSink out) {
+       out.printLine("Line too long.");
+    }
+
+    public static void displayNothingToUndoError(OutputSink out) {
+       out.printLine("Nothing to undo.");
     }
  }
\ No newline at end of file
@@ -0,0 +1,180 @@
+import java.util.Arrays;
+
+/**
+ * Class for the outcome of evaluating a line with SRPN.evaluate: the values printed by
+ * "d" and "=", and the errors reported, as one list of events in the order they happened,
+ * followed by the top of the stack and whether the session has ended.
+ *
+ * Errors are the integer codes from Errors, so nothing is formatted unless the result is
+ * rendered. A result is meant to be reused: it is cleared at the start of each evaluation
+ * and its arrays only grow, so evaluating lines into the same result does not allocate.
+ */
+
+public class EvalResult {
+
+    // Kind of an event that is a printed value rather than an error code
+    public static final int VALUE = -1;
+
+    // Events in order: the kind is VALUE or an error code, and the value is the printed value
+    // for a VALUE or the unrecognised character for an INVALID_OPERATOR
+    private int[] kinds = new int[16];
+    private long[] values = new long[16];
+    private int eventCount;
+    private int errorCount;
+
+    // State of the session once the line has been evaluated
+    private boolean hasTop;
+    private long top;
+    private boolean terminated;
+
+    /**
+     * Forgets every event, ready for the next line.
+     */
+    public void clear() {
+        eventCount = 0;
+        errorCount = 0;
+        hasTop = false;
+        top = 0;
+        terminated = false;
+    }
+
+    /**
+     * Adds a printed value.
+     */
+    public void addValue(long value) {
+        add(VALUE, value);
+    }
+
+    /**
+     * Adds an error, given its code from Errors.
+     */
+    public void addError(int error) {
+        add(error, 0);
+        errorCount++;
+    }
+
+    /**
+     * Adds an unrecognised character error.
+     */
+    public void addInvalidOperator(char c) {
+        add(Errors.INVALID_OPERATOR, c);
+        errorCount++;
+    }
+
+    /**
+     * Records the state of the session after the line.
+     */
+    void finish(OperandStack stack, boolean terminated) {
+        this.hasTop = !stack.isEmpty();
+        this.top = hasTop ? stack.peek() : 0;
+        this.terminated = terminated;
+    }
+
+    /**
+     * Returns the number of events.
+     */
+    public int eventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the number of events that are errors.
+     */
+    public int errorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Checks if an event is a printed value.
+     */
+    public boolean isValue(int event) {
+        return kinds[checkEvent(event)] == VALUE;
+    }
+
+    /**
+     * Returns the printed value of an event.
+     */
+    public long value(int event) {
+        if (!isValue(event)) {
+            throw new IllegalStateException("Event " + event + " is an error");
+        }
+        return values[event];
+    }
+
+    /**
+     * Returns the error code of an event, or VALUE if it is a printed value.
+     */
+    public int error(int event) {
+        return kinds[checkEvent(event)];
+    }
+
+    /**
+     * Returns the unrecognised character of an INVALID_OPERATOR event.
+     */
+    public char invalidCharacter(int event) {
+        if (error(event) != Errors.INVALID_OPERATOR) {
+            throw new IllegalStateException("Event " + event + " is not an unrecognised character");
+        }
+        return (char) values[event];
+    }
+
+    /**
+     * Checks if the stack held anything after the line.
+     */
+    public boolean hasTop() {
+        return hasTop;
+    }
+
+    /**
+     * Returns the operand on top of the stack after the line.
+     */
+    public long top() {
+        if (!hasTop) {
+            throw new IllegalStateException("The stack is empty");
+        }
+        return top;
+    }
+
+    /**
+     * Checks if a modulo by zero ended the session on this line or before it.
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Writes the events to a sink exactly as the calculator prints them.
+     */
+    public void renderTo(OutputSink out) {
+        for (int i = 0; i < eventCount; i++) {
+            if (kinds[i] == VALUE) {
+                out.printValue(values[i]);
+            } else {
+                Errors.display(kinds[i], (char) values[i], out);
+            }
+        }
+    }
+
+    /**
+     * Adds an event, growing the arrays if needed.
+     */
+    private void add(int kind, long value) {
+        if (eventCount == kinds.length) {
+            kinds = Arrays.copyOf(kinds, kinds.length * 2);
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        kinds[eventCount] = kind;
+        values[eventCount] = value;
+        eventCount++;
+    }
+
+    /**
+     * Checks that an event exists and returns its index.
+     */
+    private int checkEvent(int event) {
+        if (event < 0 || event >= eventCount) {
+            throw new IndexOutOfBoundsException("Event " + event + " of " + eventCount);
+        }
+        return event;
+    }
+}
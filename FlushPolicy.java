@@ -0,0 +1,12 @@
+/**
+ * When a BufferedOutputSink passes its output on.
+ */
+
+public enum FlushPolicy {
+    // After every line, as System.out.println does
+    LINE,
+    // Whenever the given number of bytes has built up
+    BYTES,
+    // Only when the buffer is full or flush() is called
+    END
+}
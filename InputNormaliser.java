@@ -0,0 +1,534 @@
+import java.util.Arrays;
+
+/**
+ * Class for cleaning console input one character at a time.
+ * It does the work of alterInput (lower-casing, trimming, removing comments, collapsing
+ * spaces, unmerging expressions like "2+2*3" and ordering operators by precedence) as an
+ * incremental state machine, and hands the resulting tokens to a TokenSink instead of
+ * building intermediate Strings. Operators and commands, and their precedence, come
+ * from an OperatorRegistry and are sent as its opcodes.
+ *
+ * With a WordDictionary, a token made only of the letters of a word's name is replaced by
+ * the tokens of the word. The letters at the start of a token are held until it is clear
+ * whether they are a name, and read as usual if they are not.
+ *
+ * What is held back for a line otherwise grows with the line, which is no matter when the
+ * line is already in memory. For a line read a character at a time, setHoldLimits bounds it.
+ */
+
+public class InputNormaliser {
+
+    // The operators and commands recognised
+    private final OperatorRegistry operatorRegistry;
+
+    // Where the tokens are sent
+    private TokenSink sink;
+
+    // Whether an unclosed "#" comment carries on to the following lines
+    private boolean multiLineComments;
+
+    // Whether a non-whitespace character has been read on the current line
+    private boolean lineStarted;
+
+    // Comment state, and the characters of a comment that may turn out to be unclosed
+    private boolean inComment;
+    private char[] comment = new char[16];
+    private int commentLength;
+
+    // Whitespace read since the last token character, which is dropped if the line ends.
+    // A run of spaces is held as one space, since the second ends no more tokens than the first
+    private char[] whitespace = new char[16];
+    private int whitespaceLength;
+
+    // State of the token being read
+    private boolean inToken;
+
+    // State of the number being read within the token
+    private boolean inNumber;
+    private boolean numberNegative;
+    private int numberDigits;
+    private boolean numberStartsWithAsciiDigit;
+    private long numberValue;
+
+    // Opcodes of the operators and commands of the token, in the order they were read, as runs
+    // of the same opcode so that a long merged token such as "1+1+1+..." needs no more than one run.
+    // Since each precedence is sent on its own, a run takes in every later operator of its
+    // precedence until one of another opcode of that precedence is read
+    private int[] operators = new int[16];
+    private long[] operatorRunLengths = new long[16];
+    private int operatorCount;
+
+    // For each precedence, the number of runs, the last run, whether every run is of a binary
+    // operator, and whether later operators are counted rather than kept
+    private final int[] levelRunCounts = new int[Byte.MAX_VALUE + 1];
+    private final int[] levelLastRuns = new int[Byte.MAX_VALUE + 1];
+    private final boolean[] levelMixed = new boolean[Byte.MAX_VALUE + 1];
+    private final boolean[] levelCounting = new boolean[Byte.MAX_VALUE + 1];
+
+    // Binary operators counted by opcode once their precedence has all the runs a stack can use
+    private long[] countedOperators = new long[16];
+    private boolean counting;
+
+    // Limits on what is held back, or 0 for none: see setHoldLimits
+    private int stackLimit;
+    private int maxHeld;
+
+    // Words to replace by their tokens, or null, and the letters of the token read so far that may be the name of one
+    private WordDictionary words;
+    private final StringBuilder name = new StringBuilder();
+
+    // Constructor for a normaliser of the built-in operators and commands that sends tokens to the given sink.
+    public InputNormaliser(TokenSink sink) {
+        this(sink, OperatorRegistry.standard());
+    }
+
+    // Constructor for a normaliser of the operators and commands of the registry that sends tokens to the given sink.
+    public InputNormaliser(TokenSink sink, OperatorRegistry operatorRegistry) {
+        this.sink = sink;
+        this.operatorRegistry = operatorRegistry;
+    }
+
+    /**
+     * Changes where the tokens are sent.
+     */
+    public void setSink(TokenSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Sets the words whose names are replaced by their tokens, or null for none.
+     */
+    public void setWords(WordDictionary words) {
+        this.words = words;
+        name.setLength(0);
+    }
+
+    /**
+     * Bounds what is held back for a line, as for one read a character at a time by
+     * SRPN.processStream, so that memory does not grow with the length of the line.
+     *
+     * Within a precedence made only of binary operators, the first 2 * stackLimit runs of the
+     * token are kept and the operators after them only counted. Between two runs of different
+     * operators, the first operator of at least one of them takes an operand off the stack, or
+     * ends the session with a modulo by zero, as no two binary operators fail on the same operands
+     * without doing so; so a stack of at most stackLimit operands is down to one before the
+     * last kept run, and every counted operator underflows whichever it is. A command or unary
+     * operator of that precedence must come after them, so it turns the counts back into runs.
+     *
+     * Everything else that is held back, the text after a "#" that may not be closed, whitespace
+     * that may end the line and the runs of other precedences, may grow to maxHeld characters or
+     * runs each, past which accept throws an IllegalStateException; the line is then abandoned
+     * and the normaliser must be reset. 0 for both holds everything.
+     */
+    public void setHoldLimits(int stackLimit, int maxHeld) {
+        this.stackLimit = stackLimit;
+        this.maxHeld = maxHeld;
+    }
+
+    /**
+     * Enables or disables "#" comments that span lines.
+     * When disabled, a "#" without a closing "#" on the same line is not a comment, as before.
+     */
+    public void setMultiLineComments(boolean enabled) {
+        multiLineComments = enabled;
+    }
+
+    /**
+     * Checks if the input read so far ends inside a comment.
+     */
+    public boolean isInComment() {
+        return inComment;
+    }
+
+    /**
+     * Sets whether the next line starts inside a comment, as when a session is resumed.
+     */
+    public void setInComment(boolean inComment) {
+        this.inComment = inComment;
+    }
+
+    /**
+     * Forgets any comment, token or line in progress.
+     */
+    public void reset() {
+        inComment = false;
+        commentLength = 0;
+        whitespaceLength = 0;
+        inToken = false;
+        inNumber = false;
+        clearOperators();
+        name.setLength(0);
+        lineStarted = false;
+    }
+
+    /**
+     * Cleans a whole line of input.
+     */
+    public void normalise(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            accept(line.charAt(i));
+        }
+        endLine();
+    }
+
+    /**
+     * Reads the next character of the current line.
+     */
+    public void accept(char c) {
+        c = Character.toLowerCase(c);
+
+        // Inside a comment, only a closing "#" matters
+        if (inComment) {
+            if (c == '#') {
+                inComment = false;
+                commentLength = 0;
+            } else if (!multiLineComments) {
+                // Keep the character in case the comment is never closed
+                checkHeld(commentLength);
+                comment = append(comment, commentLength++, c);
+            }
+            return;
+        }
+
+        // Whitespace at the start of a line is trimmed
+        if (!lineStarted) {
+            if (c <= ' ') {
+                return;
+            }
+            lineStarted = true;
+        }
+
+        // Whitespace is held back until we know it is not at the end of the line
+        if (c <= ' ') {
+            if (c != ' ' || whitespaceLength == 0 || whitespace[whitespaceLength - 1] != ' ') {
+                checkHeld(whitespaceLength);
+                whitespace = append(whitespace, whitespaceLength++, c);
+            }
+            return;
+        }
+        flushWhitespace();
+
+        if (c == '#') {
+            inComment = true;
+            return;
+        }
+        acceptTokenCharacter(c);
+    }
+
+    /**
+     * Ends the current line, sending any token that is still being read.
+     */
+    public void endLine() {
+        // Without multi-line comments, an unclosed "#" and everything after it is read as normal input
+        if (inComment && !multiLineComments) {
+            inComment = false;
+            acceptTokenCharacter('#');
+            for (int i = 0; i < commentLength; i++) {
+                accept(comment[i]);
+            }
+            commentLength = 0;
+        }
+
+        // Whitespace at the end of a line is trimmed
+        whitespaceLength = 0;
+        endToken();
+        lineStarted = false;
+    }
+
+    /**
+     * Reads held back whitespace that turned out to be inside the line.
+     * Spaces separate tokens, while any other whitespace is an unrecognised character.
+     */
+    private void flushWhitespace() {
+        for (int i = 0; i < whitespaceLength; i++) {
+            if (whitespace[i] == ' ') {
+                endToken();
+            } else {
+                acceptTokenCharacter(whitespace[i]);
+            }
+        }
+        whitespaceLength = 0;
+    }
+
+    /**
+     * Reads a character that belongs to a token, holding the letters that start it while they may be a word's name.
+     */
+    private void acceptTokenCharacter(char c) {
+        // Letters starting a token may be the name of a word
+        if (words != null && (!inToken || name.length() > 0)) {
+            if (c >= 'a' && c <= 'z') {
+                inToken = true;
+                name.append(c);
+                // Letters longer than every name cannot be one
+                if (name.length() > words.longestName()) {
+                    releaseName();
+                }
+                return;
+            }
+            releaseName();
+        }
+        readTokenCharacter(c);
+    }
+
+    /**
+     * Reads a character that belongs to a token and is not part of a word's name.
+     * Digits build numbers, operators and commands are held until the end of the token,
+     * and anything else is reported as unrecognised.
+     */
+    private void readTokenCharacter(char c) {
+        // If the first character of the token is a '-', handle it as part of the number
+        if (!inToken) {
+            inToken = true;
+            if (c == '-') {
+                startNumber(true);
+                return;
+            }
+        }
+
+        if (Character.isDigit(c)) {
+            if (!inNumber) {
+                startNumber(false);
+            }
+            appendDigit(c);
+        } else if (operatorRegistry.opcodeOf(c) != OperatorRegistry.NONE) {
+            endNumber();
+            appendOperator(operatorRegistry.opcodeOf(c));
+        } else {
+            sink.unrecognised(c);
+            // A number read before the unrecognised character is still valid
+            endNumber();
+        }
+    }
+
+    /**
+     * Ends the current token: its numbers have already been sent,
+     * so send its operators and commands ordered by precedence.
+     */
+    private void endToken() {
+        if (!inToken) {
+            return;
+        }
+        if (name.length() > 0) {
+            WordDictionary.Word word = words.get(name);
+            if (word != null) {
+                name.setLength(0);
+                inToken = false;
+                words.inline(word, sink);
+                return;
+            }
+            releaseName();
+        }
+        endNumber();
+
+        // Higher precedence first, keeping the original order within a precedence
+        for (byte level : operatorRegistry.precedenceLevels()) {
+            if (levelRunCounts[level] == 0) {
+                continue;
+            }
+            for (int i = 0; i < operatorCount; i++) {
+                int opcode = operators[i];
+                if (operatorRegistry.precedence(opcode) == level) {
+                    for (long j = 0; j < operatorRunLengths[i]; j++) {
+                        sendOperatorOrCommand(opcode);
+                    }
+                }
+            }
+            if (levelCounting[level]) {
+                sendCountedOperators(level);
+            }
+        }
+        clearOperators();
+        inToken = false;
+    }
+
+    /**
+     * Reads the letters held as a possible name as the ordinary token characters they turned out to be.
+     */
+    private void releaseName() {
+        if (name.length() == 0) {
+            return;
+        }
+        inToken = false;
+        for (int i = 0; i < name.length(); i++) {
+            readTokenCharacter(name.charAt(i));
+        }
+        name.setLength(0);
+    }
+
+    /**
+     * Starts reading a number.
+     */
+    private void startNumber(boolean negative) {
+        inNumber = true;
+        numberNegative = negative;
+        numberDigits = 0;
+        numberValue = 0;
+    }
+
+    /**
+     * Adds a digit to the number being read, clamping it to the range of a long.
+     */
+    private void appendDigit(char c) {
+        if (numberDigits++ == 0) {
+            numberStartsWithAsciiDigit = c >= '0' && c <= '9';
+        }
+
+        // Accumulate the value as a negative number so that Long.MIN_VALUE can be reached
+        int digit = Character.digit(c, 10);
+        if (numberValue < Long.MIN_VALUE / 10 || numberValue * 10 < Long.MIN_VALUE + digit) {
+            numberValue = Long.MIN_VALUE;
+        } else {
+            numberValue = numberValue * 10 - digit;
+        }
+    }
+
+    /**
+     * Sends the number being read, if there is one.
+     */
+    private void endNumber() {
+        if (!inNumber) {
+            return;
+        }
+        inNumber = false;
+
+        // A lone "-" is the subtraction operator
+        if (numberDigits == 0) {
+            sink.operator(OperatorRegistry.SUBTRACT);
+        }
+        // Only ASCII digits can start an operand, other digits are silently ignored
+        else if (numberStartsWithAsciiDigit) {
+            if (numberNegative) {
+                sink.operand(numberValue);
+            } else {
+                sink.operand(numberValue == Long.MIN_VALUE ? Long.MAX_VALUE : -numberValue);
+            }
+        }
+    }
+
+    /**
+     * Sends an operator or command to the sink.
+     */
+    private void sendOperatorOrCommand(int opcode) {
+        if (operatorRegistry.isCommand(opcode)) {
+            sink.command(opcode);
+        } else {
+            sink.operator(opcode);
+        }
+    }
+
+    /**
+     * Adds an operator or command to the token, extending the last run of its precedence if it is
+     * the same one, or counting it if its precedence already has all the runs the stack can use.
+     */
+    private void appendOperator(int opcode) {
+        int level = operatorRegistry.precedence(opcode);
+        int runs = levelRunCounts[level];
+        boolean binary = operatorRegistry.arity(opcode) == 2;
+        if (levelCounting[level]) {
+            if (binary) {
+                countedOperators[opcode]++;
+                return;
+            }
+            // A command or unary operator runs after the counted operators, so they are held as runs again
+            holdCountedOperators(level);
+            runs = levelRunCounts[level];
+        }
+        if (runs > 0 && operators[levelLastRuns[level]] == opcode) {
+            operatorRunLengths[levelLastRuns[level]]++;
+            return;
+        }
+        if (stackLimit > 0 && runs >= 2L * stackLimit && binary && !levelMixed[level]) {
+            if (opcode >= countedOperators.length) {
+                countedOperators = Arrays.copyOf(countedOperators, Math.max(opcode + 1, countedOperators.length * 2));
+            }
+            levelCounting[level] = true;
+            counting = true;
+            countedOperators[opcode]++;
+            return;
+        }
+        addRun(opcode, 1);
+    }
+
+    /**
+     * Adds a run of an operator or command to the token, after the others of its precedence.
+     */
+    private void addRun(int opcode, long length) {
+        int level = operatorRegistry.precedence(opcode);
+        checkHeld(levelRunCounts[level]);
+
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+            operatorRunLengths = Arrays.copyOf(operatorRunLengths, operatorCount * 2);
+        }
+        operators[operatorCount] = opcode;
+        operatorRunLengths[operatorCount] = length;
+        levelRunCounts[level]++;
+        levelLastRuns[level] = operatorCount;
+        levelMixed[level] |= operatorRegistry.arity(opcode) != 2;
+        operatorCount++;
+    }
+
+    /**
+     * Stops counting at a precedence, holding what was counted as one run of each operator.
+     * Each of them underflows, so the order of the runs does not matter.
+     */
+    private void holdCountedOperators(int level) {
+        for (int opcode = 0; opcode < countedOperators.length; opcode++) {
+            if (countedOperators[opcode] > 0 && operatorRegistry.precedence(opcode) == level) {
+                addRun(opcode, countedOperators[opcode]);
+                countedOperators[opcode] = 0;
+            }
+        }
+        levelCounting[level] = false;
+    }
+
+    /**
+     * Sends the operators counted at a precedence. Each of them underflows, so their order does not matter.
+     */
+    private void sendCountedOperators(int level) {
+        for (int opcode = 0; opcode < countedOperators.length; opcode++) {
+            if (countedOperators[opcode] > 0 && operatorRegistry.precedence(opcode) == level) {
+                for (long j = 0; j < countedOperators[opcode]; j++) {
+                    sendOperatorOrCommand(opcode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the operators and commands of the token.
+     */
+    private void clearOperators() {
+        for (int i = 0; i < operatorCount; i++) {
+            int level = operatorRegistry.precedence(operators[i]);
+            levelRunCounts[level] = 0;
+            levelMixed[level] = false;
+            levelCounting[level] = false;
+        }
+        operatorCount = 0;
+        if (counting) {
+            Arrays.fill(countedOperators, 0);
+            counting = false;
+        }
+    }
+
+    /**
+     * Checks that one more character or run can be held back within the limit set by setHoldLimits.
+     */
+    private void checkHeld(int held) {
+        if (maxHeld > 0 && held >= maxHeld) {
+            throw new IllegalStateException("More than " + maxHeld + " characters or operators held back");
+        }
+    }
+
+    /**
+     * Stores c at the given index, growing the array if needed.
+     */
+    private static char[] append(char[] array, int index, char c) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = c;
+        return array;
+    }
+}
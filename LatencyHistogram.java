@@ -0,0 +1,143 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Class for a histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ * Buckets are log-linear: every power of two is split into SUB_BUCKETS equal buckets,
+ * so any recorded value is reported to within about 3% while the whole range of a long
+ * fits in a fixed array. Recording is a few shifts and an increment and never allocates.
+ *
+ * The histogram is written by one thread. Other threads may read it, for example through
+ * JMX, in which case they see counts that may be slightly behind. As in Metrics, the writer
+ * stores every value with an opaque write and readers load them with opaque reads, so no
+ * long is ever seen half written; the count is written last, with a release store, so a
+ * reader that sees a latency counted also sees it in its bucket.
+ */
+
+public class LatencyHistogram {
+
+    // Buckets per power of two, as a power of two itself
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values below SUB_BUCKETS have a bucket each, then every power of two up to 2^63 has SUB_BUCKETS
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle COUNT;
+    private static final VarHandle TOTAL;
+    private static final VarHandle MAX;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            COUNT = lookup.findVarHandle(LatencyHistogram.class, "count", long.class);
+            TOTAL = lookup.findVarHandle(LatencyHistogram.class, "total", long.class);
+            MAX = lookup.findVarHandle(LatencyHistogram.class, "max", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * Records a latency. Negative values, which a clock going backwards can give, are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = bucketOf(nanos);
+        COUNTS.setOpaque(counts, bucket, counts[bucket] + 1);
+        TOTAL.setOpaque(this, total + nanos);
+        if (nanos > max) {
+            MAX.setOpaque(this, nanos);
+        }
+        COUNT.setRelease(this, count + 1);
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     */
+    public long count() {
+        return (long) COUNT.getAcquire(this);
+    }
+
+    /**
+     * Returns the largest latency recorded, exactly.
+     */
+    public long max() {
+        return (long) MAX.getOpaque(this);
+    }
+
+    /**
+     * Returns the mean latency, or 0 if none have been recorded.
+     */
+    public double mean() {
+        long recorded = count();
+        return recorded == 0 ? 0 : (double) (long) TOTAL.getOpaque(this) / recorded;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of recorded latencies fall,
+     * as the highest value in its bucket, or 0 if none have been recorded.
+     */
+    public long percentile(double percent) {
+        long recorded = count();
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(recorded * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += (long) COUNTS.getOpaque(counts, i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Forgets every recorded latency.
+     */
+    public void reset() {
+        COUNT.setRelease(this, 0L);
+        for (int i = 0; i < BUCKETS; i++) {
+            COUNTS.setOpaque(counts, i, 0L);
+        }
+        TOTAL.setOpaque(this, 0L);
+        MAX.setOpaque(this, 0L);
+    }
+
+    /**
+     * Returns the bucket for a value.
+     * Values below SUB_BUCKETS map to themselves; above that, the position of the highest set bit
+     * picks the power of two and the SUB_BUCKET_BITS bits below it pick the bucket within it.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that falls in a bucket.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
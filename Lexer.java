@@ -0,0 +1,92 @@
+/**
+ * Class for classifying tokens of cleaned console input.
+ * Characters are classified with a lookup table instead of regular expressions.
+ * The token types also number the kinds of tokens and instructions elsewhere.
+ */
+
+public final class Lexer {
+
+    // Token types returned by classify()
+    public static final int OPERAND = 1;
+    public static final int OPERATOR = 2;
+    public static final int COMMAND = 3;
+    public static final int UNKNOWN = 4;
+
+    // Character classes used in the lookup table
+    private static final byte OTHER = 0;
+    private static final byte DIGIT = 1;
+    private static final byte OPERATOR_CHAR = 2;
+    private static final byte COMMAND_CHAR = 3;
+
+    // Lookup table from ASCII character to character class
+    private static final byte[] CHAR_CLASS = new byte[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASS[c] = DIGIT;
+        }
+        for (char c : "+-*/^%".toCharArray()) {
+            CHAR_CLASS[c] = OPERATOR_CHAR;
+        }
+        for (char c : "dr=".toCharArray()) {
+            CHAR_CLASS[c] = COMMAND_CHAR;
+        }
+    }
+
+    /**
+     * Classifies a whole string as a single token.
+     */
+    public static int classify(CharSequence token) {
+        return classify(token, 0, token.length());
+    }
+
+    /**
+     * Classifies the given range of the input as a single token.
+     * An operand only needs to start with a digit, or with "-" followed by a digit,
+     * matching the prefix test that SRPN has always used for operands.
+     */
+    public static int classify(CharSequence input, int start, int end) {
+        int length = end - start;
+        if (length <= 0) {
+            return UNKNOWN;
+        }
+
+        char first = input.charAt(start);
+        byte firstClass = classOf(first);
+        if (firstClass == DIGIT) {
+            return OPERAND;
+        }
+        if (first == '-' && length > 1 && classOf(input.charAt(start + 1)) == DIGIT) {
+            return OPERAND;
+        }
+        if (firstClass == OPERATOR_CHAR && length == 1) {
+            return OPERATOR;
+        }
+        if (firstClass == COMMAND_CHAR && (length == 1 || isLineTerminator(input, start + 1, end))) {
+            return COMMAND;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the character class of c.
+     */
+    private static byte classOf(char c) {
+        return c < CHAR_CLASS.length ? CHAR_CLASS[c] : OTHER;
+    }
+
+    /**
+     * Checks if the given range is exactly one line terminator.
+     * A command followed by a final line terminator has always been accepted as a command.
+     */
+    private static boolean isLineTerminator(CharSequence input, int start, int end) {
+        if (end - start == 2) {
+            return input.charAt(start) == '\r' && input.charAt(start + 1) == '\n';
+        }
+        if (end - start != 1) {
+            return false;
+        }
+        char c = input.charAt(start);
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -1,4 +1,11 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
 
 /* 
 * Class containing the main method to read input from the user
@@ -8,10 +15,320 @@ import java.io.*;
 
 public class Main {
 
+  //Bytes of output built up before they are passed on, for "--flush N" and file mode
+  private static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+
+  //Seconds between writes of "--metrics-file"
+  private static final long DEFAULT_METRICS_INTERVAL_SECONDS = 10;
+
+  //Rows read before they are evaluated together by "--columns"
+  private static final int COLUMN_BATCH_ROWS = 1 << 20;
+
   /* Main method repeatedly reads input from the user and passes it to SRPN */
   public static void main(String[] args) {
     
-    SRPN srpn = new SRPN(); //Creates a new instance of the SRPN class
+    //Options given on the command line
+    boolean multiLineComments = false;
+    boolean cacheStats = false;
+    boolean constantFolding = true;
+    boolean stream = false;
+    boolean pipeline = false;
+    OperatorRegistry operators = OperatorRegistry.standard();
+    int cacheSize = Constants.PROGRAM_CACHE_SIZE;
+    String file = null;
+    int serverPort = -1;
+    int maxSessions = SRPNServer.DEFAULT_MAX_SESSIONS;
+    List<String> batch = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    //Without a "--flush" option, output is passed on whenever no more input is waiting
+    FlushPolicy flushPolicy = null;
+    int flushBytes = DEFAULT_FLUSH_BYTES;
+    boolean metricsJmx = false;
+    String metricsFile = null;
+    long metricsInterval = DEFAULT_METRICS_INTERVAL_SECONDS;
+    int metricsSampleInterval = Constants.METRICS_SAMPLE_INTERVAL;
+    String columns = null;
+    String record = null;
+    String replay = null;
+    String replayRate = "original";
+    String checkpoint = null;
+    long checkpointInterval = 0;
+    String resume = null;
+    int undoHistory = 0;
+    int deepStack = 0;
+    int compileThreshold = 0;
+    boolean words = false;
+    String profile = null;
+    int profileSampleInterval = 1;
+    boolean profileTokens = false;
+    int profileLines = Profiler.DEFAULT_MAX_LINES;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        //"--multiline-comments" lets a "#" comment carry on over several lines
+        case "--multiline-comments":
+          multiLineComments = true;
+          break;
+        //"--cache-size N" sets how many compiled lines are kept, 0 turns the cache off
+        case "--cache-size":
+          cacheSize = Integer.parseInt(args[++i]);
+          break;
+        //"--cache-stats" prints the cache counters to stderr on exit
+        case "--cache-stats":
+          cacheStats = true;
+          break;
+        //"--no-folding" evaluates constant runs such as "3 4 +" every time instead of folding them
+        case "--no-folding":
+          constantFolding = false;
+          break;
+        //"--file script.srpn" runs a whole file in batch mode instead of reading stdin
+        case "--file":
+          file = args[++i];
+          break;
+        //"--extended-operators" adds min "<", max ">", bitwise and "&" and or "|", abs "!" and not "~"
+        case "--extended-operators":
+          operators = OperatorRegistry.extended();
+          break;
+        //"--stream" evaluates the input in chunks as it is read, so lines of any length fit in memory
+        case "--stream":
+          stream = true;
+          break;
+        //"--pipeline" reads, evaluates and writes on three threads, so reading and writing overlap evaluation.
+        //It is experimental: the gain on several cores has not been measured, and on one core it is slower
+        case "--pipeline":
+          pipeline = true;
+          break;
+        //"--server PORT" serves sessions over TCP on the loopback interface instead of reading stdin
+        case "--server":
+          serverPort = Integer.parseInt(args[++i]);
+          break;
+        //"--max-sessions N" limits how many server sessions are open at once
+        case "--max-sessions":
+          maxSessions = Integer.parseInt(args[++i]);
+          break;
+        //"--batch PATH..." evaluates every script given, or every file in the directories given, in parallel
+        case "--batch":
+          batch = Arrays.asList(args).subList(i + 1, args.length);
+          i = args.length;
+          break;
+        //"--columns FORMULA" applies a formula such as "$x $y * 2 +" to every row of comma-separated inputs
+        case "--columns":
+          columns = args[++i];
+          break;
+        //"--threads N" sets how many scripts "--batch" or rows "--columns" evaluates at once
+        case "--threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        //"--flush line", "--flush end" or "--flush N" sets when output is passed on
+        case "--flush":
+          String flush = args[++i];
+          if (flush.equals("line")) {
+            flushPolicy = FlushPolicy.LINE;
+          } else if (flush.equals("end")) {
+            flushPolicy = FlushPolicy.END;
+          } else {
+            flushPolicy = FlushPolicy.BYTES;
+            flushBytes = Integer.parseInt(flush);
+          }
+          break;
+        //"--record PATH" writes every input line, when it arrived and a digest of its output to a binary trace
+        case "--record":
+          record = args[++i];
+          break;
+        //"--replay PATH" feeds a trace written by "--record" back through the calculator and reports how it went
+        case "--replay":
+          replay = args[++i];
+          break;
+        //"--replay-rate original", "--replay-rate max" or "--replay-rate N" sets how fast "--replay" feeds lines in
+        case "--replay-rate":
+          replayRate = args[++i];
+          break;
+        //"--checkpoint PATH" writes the stack, "r" position and any words to a checkpoint file when the input ends
+        case "--checkpoint":
+          checkpoint = args[++i];
+          break;
+        //"--checkpoint-every N" also writes the "--checkpoint" file after every N lines
+        case "--checkpoint-every":
+          checkpointInterval = Long.parseLong(args[++i]);
+          break;
+        //"--resume PATH" starts from a checkpoint instead of an empty stack
+        case "--resume":
+          resume = args[++i];
+          break;
+        //"--undo N" keeps the last N lines so that a line reading "undo" can back them out one at a time
+        case "--undo":
+          undoHistory = Integer.parseInt(args[++i]);
+          break;
+        //"--compile-after N" compiles a line to JVM bytecode once it has run N times
+        case "--compile-after":
+          compileThreshold = Integer.parseInt(args[++i]);
+          break;
+        //"--words" lets a line such as ": name body ;" define a word, which is then read as its body
+        case "--words":
+          words = true;
+          break;
+        //"--deep-stack N" lets the stack hold up to N operands, kept off the Java heap, instead of 23
+        case "--deep-stack":
+          deepStack = Integer.parseInt(args[++i]);
+          break;
+        //"--profile PATH" writes a report of the time spent on each line, operator and command to PATH on exit,
+        //and the same times as collapsed stacks for a flame graph to PATH.collapsed
+        case "--profile":
+          profile = args[++i];
+          break;
+        //"--profile-sample N" times one line in N for "--profile", counting tokens and errors on every line
+        case "--profile-sample":
+          profileSampleInterval = Integer.parseInt(args[++i]);
+          break;
+        //"--profile-tokens" also times each token of the lines "--profile" times
+        case "--profile-tokens":
+          profileTokens = true;
+          break;
+        //"--profile-lines N" keeps the N lines "--profile" finds the most time on one by one, and adds up the rest
+        case "--profile-lines":
+          profileLines = Integer.parseInt(args[++i]);
+          break;
+        //"--metrics-jmx" publishes the runtime metrics over JMX, as srpn:type=Metrics,name=main
+        case "--metrics-jmx":
+          metricsJmx = true;
+          break;
+        //"--metrics-file PATH" writes the runtime metrics to a file every few seconds and on exit
+        case "--metrics-file":
+          metricsFile = args[++i];
+          break;
+        //"--metrics-interval N" sets how many seconds apart "--metrics-file" writes them
+        case "--metrics-interval":
+          metricsInterval = Long.parseLong(args[++i]);
+          break;
+        //"--metrics-sample N" times one line in N for the latency metrics, 1 timing every line
+        case "--metrics-sample":
+          metricsSampleInterval = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+
+    if (batch != null) {
+      System.exit(runBatch(batch, threads, multiLineComments));
+    }
+
+    if (columns != null) {
+      System.exit(runColumns(columns, operators, file, threads));
+    }
+
+    if (serverPort >= 0) {
+      runServer(serverPort, maxSessions);
+      return;
+    }
+
+    //Sessions are created the same way for replaying a trace as for reading input
+    int sessionCacheSize = cacheSize;
+    OperatorRegistry sessionOperators = operators;
+    boolean sessionMultiLineComments = multiLineComments;
+    boolean sessionConstantFolding = constantFolding;
+    int sessionUndoHistory = undoHistory;
+    int sessionDeepStack = deepStack;
+    int sessionCompileThreshold = compileThreshold;
+    boolean sessionWords = words;
+    //An anonymous class rather than a lambda, so that launching does not wait for invokedynamic to bootstrap
+    Function<OutputSink, SRPN> sessions = new Function<OutputSink, SRPN>() {
+      @Override
+      public SRPN apply(OutputSink sink) {
+        SRPN session = new SRPN(sessionCacheSize, sink, sessionOperators);
+        session.setMultiLineComments(sessionMultiLineComments);
+        session.setConstantFolding(sessionConstantFolding);
+        session.setCompileThreshold(sessionCompileThreshold);
+        session.setWords(sessionWords);
+        if (sessionDeepStack > 0) {
+          session.setDeepStack(sessionDeepStack);
+        }
+        session.setUndoHistory(sessionUndoHistory);
+        return session;
+      }
+    };
+
+    if (replay != null) {
+      System.exit(runReplay(replay, replayRate, sessions));
+    }
+
+    boolean flushWhenIdle = flushPolicy == null;
+    //The pipeline passes output on after each batch of lines, which is whenever no more input is waiting
+    PipelinedRunner pipelined = pipeline ? new PipelinedRunner(flushWhenIdle ? FlushPolicy.END : flushPolicy, flushBytes) : null;
+    OutputSink out = pipelined != null ? pipelined.output()
+        : new BufferedOutputSink(System.out, flushWhenIdle ? FlushPolicy.END : flushPolicy, flushBytes);
+    TraceRecorder recorder = null;
+    if (record != null) {
+      //A trace holds whole lines, which "--stream" never holds in memory
+      if (stream) {
+        System.err.println("--record does not record --stream");
+        System.exit(2);
+      }
+      recorder = startRecording(record, out);
+      out = recorder;
+    }
+    //"--stream" evaluates tokens as they are read rather than whole lines, so no line reads "undo"
+    if (undoHistory > 0 && stream) {
+      System.err.println("--undo does not undo --stream");
+      System.exit(2);
+    }
+
+    SRPN srpn = sessions.apply(out); //Creates a new instance of the SRPN class
+    if (resume != null) {
+      try {
+        srpn.resume(Paths.get(resume));
+      }
+      catch(IOException e) {
+        System.err.println("Could not resume: " + e.getMessage());
+        System.exit(1);
+      }
+    }
+    if (checkpoint != null && checkpointInterval > 0) {
+      srpn.setCheckpointing(Paths.get(checkpoint), checkpointInterval);
+    }
+    //Metrics cost a few nanoseconds a line, so they are collected whether or not they are published
+    srpn.setMetrics(new Metrics(operators, metricsSampleInterval));
+    if (metricsJmx || metricsFile != null) {
+      reportMetrics(srpn.getMetrics(), metricsJmx, metricsFile, metricsInterval);
+    }
+
+    if (profile != null) {
+      if (stream) {
+        System.err.println("--profile does not profile --stream");
+        System.exit(2);
+      }
+      srpn.setProfiler(new Profiler(profileSampleInterval, profileTokens, profileLines));
+      writeProfileOnExit(srpn.getProfiler(), profile);
+    }
+
+    if (pipelined != null) {
+      runPipelined(pipelined, srpn, file, recorder);
+      writeCheckpoint(srpn, checkpoint);
+      if (cacheStats) {
+        printCacheStats(srpn.getProgramCache());
+      }
+      System.exit(srpn.isTerminated() ? 1 : 0);
+    }
+
+    if (stream) {
+      runStream(srpn, out, file);
+      out.flush();
+      writeCheckpoint(srpn, checkpoint);
+      if (cacheStats) {
+        printCacheStats(srpn.getProgramCache());
+      }
+      System.exit(srpn.isTerminated() ? 1 : 0);
+    }
+
+    if (file != null) {
+      runFile(srpn, out, file, recorder);
+      out.flush();
+      writeCheckpoint(srpn, checkpoint);
+      if (cacheStats) {
+        printCacheStats(srpn.getProgramCache());
+      }
+      System.exit(0);
+    }
 
     /*
     * Code to take input from the command line.
@@ -25,16 +342,373 @@ public class Main {
         String command = reader.readLine();
         //Close on an End-of-file (EOF) (Ctrl-D on the terminal)
         if(command == null){
+          out.flush();
+          writeCheckpoint(srpn, checkpoint);
+          if (cacheStats) {
+            printCacheStats(srpn.getProgramCache());
+          }
           //Exit code 0 for a graceful exit
           System.exit(0);
         }        
         //Otherwise, (attempt to) process the character
+        if (recorder != null) {
+          recorder.startLine(command);
+        }
         srpn.processCommand(command);          
+        if (recorder != null) {
+          recorder.endLine();
+        }
+        exitIfTerminated(srpn, out);
+        //Pass the output on before waiting for more input, so interactive use sees it straight away
+        if (flushWhenIdle && !reader.ready()) {
+          out.flush();
+        }
       }
     } 
+    catch(IOException | UncheckedIOException e) {
+      out.flush();
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /* Writes the "--checkpoint" file once the input has ended, unless a modulo by zero ended the session first */
+  private static void writeCheckpoint(SRPN srpn, String checkpoint) {
+    if (checkpoint == null || srpn.isTerminated()) {
+      return;
+    }
+    try {
+      srpn.checkpoint(Paths.get(checkpoint));
+    }
+    catch(IOException e) {
+      System.err.println("Could not write checkpoint: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /* Exits with status 1 once a modulo by zero has ended the session, as the original calculator crashes */
+  private static void exitIfTerminated(SRPN srpn, OutputSink out) {
+    if (srpn.isTerminated()) {
+      out.flush();
+      System.exit(1);
+    }
+  }
+
+  /* Evaluates independent scripts in parallel, writing their output in order; returns the exit status */
+  private static int runBatch(List<String> paths, int threads, boolean multiLineComments) {
+    BatchEvaluator evaluator = new BatchEvaluator(threads, multiLineComments);
+    try {
+      List<Path> scripts = BatchEvaluator.expand(paths);
+      long start = System.nanoTime();
+      int failures = evaluator.run(scripts, System.out);
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      //The summary goes to stderr so that stdout only holds the scripts' output
+      System.err.println(String.format("%d scripts on %d threads in %.3f s: %.0f scripts/sec, %d ended early",
+          scripts.size(), threads, seconds, scripts.size() / seconds, failures));
+      return failures == 0 ? 0 : 1;
+    }
+    catch(IOException e) {
+      System.err.println(e.getMessage());
+      return 1;
+    }
+    finally {
+      evaluator.shutdown();
+    }
+  }
+
+  /*
+  * Applies a formula to rows read from a file, or stdin if there is none, a batch of rows at a time.
+  * Each row holds one integer per slot, separated by commas, in the order the slots first appear in
+  * the formula; each output line holds the row's value, followed by its first error if it had one.
+  */
+  private static int runColumns(String formula, OperatorRegistry operators, String file, int threads) {
+    ColumnProgram program;
+    try {
+      program = ColumnProgram.compile(formula, operators);
+    }
+    catch(IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      return 2;
+    }
+    ColumnEvaluator evaluator = new ColumnEvaluator(threads);
+    long rows = 0;
+    long errors = 0;
+    long lineNumber = 0;
+    long start = System.nanoTime();
+    try (BufferedReader reader = file == null ? new BufferedReader(new InputStreamReader(System.in))
+        : java.nio.file.Files.newBufferedReader(Paths.get(file), Charset.defaultCharset())) {
+      OutputSink out = new BufferedOutputSink(System.out, FlushPolicy.END, DEFAULT_FLUSH_BYTES);
+      long[][] inputs = new long[program.slotCount()][COLUMN_BATCH_ROWS];
+      boolean more = true;
+      while (more) {
+        int count = 0;
+        String line;
+        while (count < COLUMN_BATCH_ROWS && (line = reader.readLine()) != null) {
+          lineNumber++;
+          if (!line.isEmpty()) {
+            readRow(line, lineNumber, inputs, count++);
+          }
+        }
+        more = count == COLUMN_BATCH_ROWS;
+        if (count == 0) {
+          break;
+        }
+        long[][] batch = inputs;
+        if (count < COLUMN_BATCH_ROWS) {
+          batch = new long[inputs.length][];
+          for (int s = 0; s < inputs.length; s++) {
+            batch[s] = Arrays.copyOf(inputs[s], count);
+          }
+        }
+        ColumnResult result = evaluator.evaluate(program, batch);
+        for (int row = 0; row < result.rows(); row++) {
+          if (result.hasError(row)) {
+            out.printLine(result.value(row) + "," + Errors.name(result.error(row)));
+            errors++;
+          } else {
+            out.printValue(result.value(row));
+          }
+        }
+        rows += result.rows();
+      }
+      out.flush();
+    }
+    catch(IOException | IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      return 1;
+    }
+    finally {
+      evaluator.shutdown();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    //The throughput goes to stderr so that stdout only holds the results
+    System.err.println(String.format("%d rows on %d threads in %.3f s: %.0f rows/sec, %d with errors",
+        rows, threads, seconds, rows / seconds, errors));
+    return 0;
+  }
+
+  /* Reads the comma-separated inputs of one row into the given row of the columns.
+   * Each input is an integer with an optional leading "-" and spaces around it, and there must be
+   * exactly one for each column; anything else throws an IllegalArgumentException naming the line */
+  private static void readRow(String line, long lineNumber, long[][] inputs, int row) {
+    int start = 0;
+    for (int s = 0; s < inputs.length; s++) {
+      if (start > line.length()) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": expected " + inputs.length
+            + " comma-separated inputs but found " + s + ": " + line);
+      }
+      int end = line.indexOf(',', start);
+      if (end < 0) {
+        end = line.length();
+      }
+      int from = start;
+      int to = end;
+      while (from < to && line.charAt(from) <= ' ') {
+        from++;
+      }
+      while (to > from && line.charAt(to - 1) <= ' ') {
+        to--;
+      }
+      if (!isInteger(line, from, to)) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": input " + (s + 1) + " is not an integer: \""
+            + line.substring(start, end) + "\"");
+      }
+      inputs[s][row] = Token.parseOperand(line, from, to);
+      start = end + 1;
+    }
+    if (start <= line.length()) {
+      throw new IllegalArgumentException("Line " + lineNumber + ": expected " + inputs.length
+          + " comma-separated inputs but found more: " + line);
+    }
+  }
+
+  /* Checks if the characters from start to end are an integer: ASCII digits after an optional "-" */
+  private static boolean isInteger(String text, int start, int end) {
+    if (start < end && text.charAt(start) == '-') {
+      start++;
+    }
+    if (start == end) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /* Serves sessions until the process is stopped */
+  private static void runServer(int port, int maxSessions) {
+    SRPNServer server = new SRPNServer(port, maxSessions);
+    try {
+      int boundPort = server.bind();
+      System.err.println("Listening on " + java.net.InetAddress.getLoopbackAddress().getHostAddress() + ":" + boundPort);
+      server.serve();
+    }
     catch(IOException e) {
       System.err.println(e.getMessage());
       System.exit(1);
     }
-  } 
+  }
+
+  /* Streams a file, or stdin if there is none, through SRPN a chunk at a time */
+  private static void runStream(SRPN srpn, OutputSink out, String file) {
+    try {
+      if (file == null) {
+        srpn.processStream(new InputStreamReader(System.in));
+      } else {
+        try (FileChannel channel = FileChannel.open(Paths.get(file))) {
+          srpn.processStream(channel, Charset.defaultCharset());
+        }
+      }
+    }
+    catch(IOException | UncheckedIOException e) {
+      out.flush();
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /* Runs every line of a file through SRPN, reading it through memory-mapped windows */
+  private static void runFile(SRPN srpn, OutputSink out, String file, TraceRecorder recorder) {
+    MappedLineReader reader = new MappedLineReader(Paths.get(file));
+    long start = System.nanoTime();
+    try {
+      reader.forEachLine(line -> {
+        if (recorder != null) {
+          recorder.startLine(line);
+        }
+        srpn.processCommand(line);
+        if (recorder != null) {
+          recorder.endLine();
+        }
+        exitIfTerminated(srpn, out);
+      });
+    }
+    catch(IOException | UncheckedIOException e) {
+      out.flush();
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    //The throughput goes to stderr so that stdout only holds the calculator's output
+    double megabytes = reader.bytes() / (1024.0 * 1024.0);
+    System.err.println(String.format("%d lines, %.1f MB in %.3f s: %.0f lines/sec, %.1f MB/sec",
+        reader.lines(), megabytes, seconds, reader.lines() / seconds, megabytes / seconds));
+  }
+
+  /* Runs a file, or stdin if there is none, through SRPN with reading and writing on threads of their own */
+  private static void runPipelined(PipelinedRunner runner, SRPN srpn, String file, TraceRecorder recorder) {
+    long start = System.nanoTime();
+    try (InputStream in = file == null ? System.in : new FileInputStream(file)) {
+      runner.run(srpn, in, System.out, recorder);
+    }
+    catch(IOException | UncheckedIOException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    //The throughput goes to stderr so that stdout only holds the calculator's output
+    System.err.println(String.format("%d lines in %.3f s: %.0f lines/sec", runner.lines(), seconds, runner.lines() / seconds));
+  }
+
+  /* Opens a trace for "--record", which is closed on exit so that everything recorded reaches the file */
+  private static TraceRecorder startRecording(String file, OutputSink out) {
+    TraceRecorder recorder;
+    try {
+      recorder = new TraceRecorder(Paths.get(file), out);
+    }
+    catch(IOException e) {
+      System.err.println("Could not record trace: " + e.getMessage());
+      System.exit(1);
+      return null;
+    }
+    //Every exit goes through System.exit, which runs this hook
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        recorder.close();
+      }
+      catch(IOException e) {
+        System.err.println("Could not write trace: " + e.getMessage());
+      }
+    }));
+    return recorder;
+  }
+
+  /* Replays a trace at the given rate, reporting throughput, latency and divergence to stderr; returns the exit status */
+  private static int runReplay(String trace, String rate, Function<OutputSink, SRPN> sessions) {
+    TraceReplayer.Pace pace;
+    double linesPerSecond = 0;
+    if (rate.equals("original")) {
+      pace = TraceReplayer.Pace.ORIGINAL;
+    } else if (rate.equals("max")) {
+      pace = TraceReplayer.Pace.MAX;
+    } else {
+      pace = TraceReplayer.Pace.FIXED;
+      linesPerSecond = Double.parseDouble(rate);
+    }
+    try {
+      TraceReplayer.Report report = new TraceReplayer(Paths.get(trace)).replay(sessions, pace, linesPerSecond);
+      System.err.println(report);
+      return report.divergent() == 0 ? 0 : 1;
+    }
+    catch(IOException | IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      return 1;
+    }
+  }
+
+  /* Publishes the metrics over JMX and to a file as asked, writing the file one last time on exit */
+  private static void reportMetrics(Metrics metrics, boolean jmx, String file, long intervalSeconds) {
+    MetricsReporter reporter = new MetricsReporter(metrics);
+    try {
+      if (jmx) {
+        reporter.registerMBean("main");
+      }
+    }
+    catch(javax.management.JMException e) {
+      System.err.println("Could not publish metrics: " + e.getMessage());
+    }
+    if (file != null) {
+      Path path = Paths.get(file);
+      reporter.startDumping(path, intervalSeconds);
+      //Every exit goes through System.exit, which runs this hook
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        reporter.close();
+        //The session has stopped evaluating, so the counts since the last sampled line can be published
+        metrics.publish();
+        try {
+          reporter.dump(path);
+        }
+        catch(IOException e) {
+          System.err.println("Could not write metrics: " + e.getMessage());
+        }
+      }));
+    }
+  }
+
+  /* Writes the profile to the report file and its collapsed stacks next to it, once the session has ended */
+  private static void writeProfileOnExit(Profiler profiler, String file) {
+    //Every exit goes through System.exit, which runs this hook
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        profiler.write(Paths.get(file), Paths.get(file + ".collapsed"));
+      }
+      catch(IOException e) {
+        System.err.println("Could not write profile: " + e.getMessage());
+      }
+    }));
+  }
+
+  /* Prints the counters of the compiled line cache to stderr, leaving stdout untouched */
+  private static void printCacheStats(ProgramCache cache) {
+    System.err.println("cache size " + cache.size() + "/" + cache.maxSize()
+        + ", hits " + cache.hits() + ", misses " + cache.misses() + ", evictions " + cache.evictions());
+  }
 }
\ No newline at end of file
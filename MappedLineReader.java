@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Class for reading the lines of a file through memory-mapped windows.
+ * Line boundaries are found by scanning the mapped bytes, and each ASCII line is handed
+ * on as a ByteSlice over those bytes, so no String is decoded for it.
+ * Lines end at "\n", "\r" or "\r\n", as with BufferedReader.readLine.
+ */
+
+public class MappedLineReader {
+
+    // Size of the window of the file mapped at a time
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    private final Path path;
+
+    // Counters for the lines and bytes read so far
+    private long lines;
+    private long bytes;
+
+    // Constructor for a reader of the given file.
+    public MappedLineReader(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Passes every line of the file to the action, in order.
+     * The CharSequence passed is only valid until the action returns.
+     */
+    public void forEachLine(Consumer<? super CharSequence> action) throws IOException {
+        ByteSlice slice = new ByteSlice();
+        Charset charset = Charset.defaultCharset();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long windowStart = 0;
+            int windowSize = WINDOW_SIZE;
+
+            while (windowStart < size) {
+                int limit = (int) Math.min(windowSize, size - windowStart);
+                boolean lastWindow = windowStart + limit == size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, limit);
+
+                int lineStart = 0;
+                while (lineStart < limit) {
+                    // Find the end of the line, noting any bytes outside ASCII on the way
+                    int lineEnd = lineStart;
+                    int highBits = 0;
+                    byte b = 0;
+                    while (lineEnd < limit) {
+                        b = buffer.get(lineEnd);
+                        if (b == '\n' || b == '\r') {
+                            break;
+                        }
+                        highBits |= b;
+                        lineEnd++;
+                    }
+
+                    // A line, or a "\r\n" pair, that carries on past the window is read again from the next window
+                    boolean terminated = lineEnd < limit;
+                    if (!lastWindow && (!terminated || (b == '\r' && lineEnd == limit - 1))) {
+                        break;
+                    }
+
+                    // Hand the line on, decoding it only if it is not plain ASCII
+                    if ((highBits & 0x80) == 0) {
+                        action.accept(slice.set(buffer, lineStart, lineEnd));
+                    } else {
+                        action.accept(decode(buffer, lineStart, lineEnd, charset));
+                    }
+                    lines++;
+
+                    // Step over the line terminator
+                    lineStart = lineEnd + 1;
+                    if (terminated && b == '\r' && lineStart < limit && buffer.get(lineStart) == '\n') {
+                        lineStart++;
+                    }
+                }
+
+                // Not even one line fitted in the window, so map a bigger one
+                if (lineStart == 0) {
+                    windowSize = growWindow(windowSize);
+                }
+                windowStart += Math.min(lineStart, limit);
+            }
+            bytes = size;
+        }
+    }
+
+    /**
+     * Returns the number of lines read.
+     */
+    public long lines() {
+        return lines;
+    }
+
+    /**
+     * Returns the number of bytes read.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Doubles the window size for a line that does not fit in one window.
+     */
+    private static int growWindow(int windowSize) throws IOException {
+        if (windowSize == Integer.MAX_VALUE) {
+            throw new IOException("Line longer than " + Integer.MAX_VALUE + " bytes");
+        }
+        return (int) Math.min(Integer.MAX_VALUE, windowSize * 2L);
+    }
+
+    /**
+     * Decodes a line that contains bytes outside ASCII.
+     */
+    private static String decode(ByteBuffer buffer, int start, int end, Charset charset) {
+        byte[] line = new byte[end - start];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = buffer.get(start + i);
+        }
+        return new String(line, charset);
+    }
+}
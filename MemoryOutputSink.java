@@ -0,0 +1,37 @@
+/**
+ * Output sink that keeps everything written in memory, for tests and embedding.
+ */
+
+public class MemoryOutputSink implements OutputSink {
+
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public void printLine(String line) {
+        text.append(line).append(System.lineSeparator());
+    }
+
+    @Override
+    public void printValue(long value) {
+        text.append(value).append(System.lineSeparator());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Removes everything written so far.
+     */
+    public void clear() {
+        text.setLength(0);
+    }
+
+    /**
+     * Returns everything written so far, one line per result or message.
+     */
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,312 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class for the runtime metrics of an SRPN session: how often each operator, command
+ * and error occurs, how deep the stack has been and how long lines take to evaluate.
+ *
+ * They are cheap enough to leave on. The thread evaluating the session keeps every count in
+ * plain fields, and a line that runs to the end is counted by its Program: running the same
+ * line again only adds one to a repeat count, and its operators and commands are added up
+ * from its tally once another line runs or the counts are published. Every
+ * latencySampleInterval-th line is timed, and the stack, which keeps the deepest it has been,
+ * is read then. Every METRICS_PUBLISH_INTERVAL lines or so, at a sampled line, the counts are
+ * published to copies other threads read, for example through JMX or MetricsReporter. So a
+ * line costs a countdown and, if it runs to the end, a comparison and an increment, and
+ * everything else is paid once per sample or once per publication.
+ *
+ * Readers therefore see counts up to METRICS_PUBLISH_INTERVAL lines, or a sample interval if
+ * that is longer, behind. The published copies are
+ * stored with opaque writes and read with opaque reads, so a reader never sees half of a
+ * long and always sees a value the count really had. publish brings them up to date, from
+ * the evaluating thread or from another once that thread has stopped evaluating.
+ */
+
+public class Metrics implements MetricsMXBean {
+
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle LINES;
+    private static final VarHandle STACK_HIGH_WATER_MARK;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            LINES = lookup.findVarHandle(Metrics.class, "publishedLines", long.class);
+            STACK_HIGH_WATER_MARK = lookup.findVarHandle(Metrics.class, "publishedStackHighWaterMark", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // The operators and commands of the session, for their symbols
+    private final OperatorRegistry operators;
+
+    // Counts by OperatorRegistry opcode and by error code as the evaluating thread keeps them
+    private final long[] opcodeCounts = new long[OperatorRegistry.MAX_OPCODES];
+    private final long[] errorCounts = new long[Errors.ERROR_TYPES];
+
+    // The same, as last published for other threads
+    private final long[] publishedOpcodeCounts = new long[OperatorRegistry.MAX_OPCODES];
+    private final long[] publishedErrorCounts = new long[Errors.ERROR_TYPES];
+    private long publishedLines;
+    private int publishedStackHighWaterMark;
+
+    // Line last counted by countLine, and the times it has run since its tally was last added to the counts
+    private Program repeatedLine;
+    private long repeats;
+
+    // Lines before the current sample interval, the length of that interval and the lines left in it,
+    // which end with the next sampled line
+    private long linesBeforeInterval;
+    private int intervalLines;
+    private int linesUntilSample;
+
+    // Latency of the sampled lines
+    private final LatencyHistogram lineLatency = new LatencyHistogram();
+    private final int latencySampleInterval;
+    private final int samplesPerPublication;
+    private int samplesUntilPublication;
+    private long lineStart;
+    private boolean timingLine;
+
+    // Stack of the last sampled line, which keeps the deepest the stack of the session has been
+    private OperandStack stack;
+
+    // Constructor for metrics of the built-in operators and commands that time one line in every METRICS_SAMPLE_INTERVAL.
+    public Metrics() {
+        this(Constants.METRICS_SAMPLE_INTERVAL);
+    }
+
+    // Constructor for metrics of the built-in operators and commands that time one line in every latencySampleInterval.
+    public Metrics(int latencySampleInterval) {
+        this(OperatorRegistry.standard(), latencySampleInterval);
+    }
+
+    // Constructor for metrics of the operators and commands of the registry that time one line in every
+    // latencySampleInterval, or every line if it is 1.
+    public Metrics(OperatorRegistry operators, int latencySampleInterval) {
+        if (latencySampleInterval <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + latencySampleInterval);
+        }
+        this.operators = operators;
+        this.latencySampleInterval = latencySampleInterval;
+        this.samplesPerPublication = Math.max(1, Constants.METRICS_PUBLISH_INTERVAL / latencySampleInterval);
+        this.samplesUntilPublication = 1;
+        this.intervalLines = 1;
+        this.linesUntilSample = 1;
+    }
+
+    /**
+     * Counts an operator or command, given its OperatorRegistry opcode.
+     */
+    public void countOpcode(int opcode) {
+        opcodeCounts[opcode]++;
+    }
+
+    /**
+     * Counts every operator and command of a line that has run to the end, folded runs included.
+     */
+    void countLine(Program program) {
+        if (program != repeatedLine) {
+            addRepeats();
+            repeatedLine = program;
+        }
+        repeats++;
+    }
+
+    /**
+     * Counts an error, given its code from Errors.
+     */
+    public void countError(int error) {
+        errorCounts[error]++;
+    }
+
+    /**
+     * Marks the start of a line, starting its timer if it is sampled and publishing the counts if they are due.
+     */
+    public void startLine() {
+        if (--linesUntilSample == 0) {
+            linesBeforeInterval += intervalLines;
+            intervalLines = latencySampleInterval;
+            linesUntilSample = latencySampleInterval;
+            if (--samplesUntilPublication == 0) {
+                samplesUntilPublication = samplesPerPublication;
+                publish();
+            }
+            timingLine = true;
+            lineStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks the end of a line, recording its latency and the depth the stack has reached if it is sampled.
+     */
+    public void endLine(OperandStack stack) {
+        if (timingLine) {
+            lineLatency.record(System.nanoTime() - lineStart);
+            timingLine = false;
+            this.stack = stack;
+            STACK_HIGH_WATER_MARK.setOpaque(this, stack.highWaterMark());
+        }
+    }
+
+    /**
+     * Publishes the counts so far to the copies other threads read. Only the thread evaluating
+     * the session may call it, or another once that thread has stopped, as at exit.
+     */
+    public void publish() {
+        addRepeats();
+        for (int opcode = 1; opcode < operators.size(); opcode++) {
+            if (opcodeCounts[opcode] != publishedOpcodeCounts[opcode]) {
+                COUNTS.setOpaque(publishedOpcodeCounts, opcode, opcodeCounts[opcode]);
+            }
+        }
+        for (int error = 0; error < errorCounts.length; error++) {
+            if (errorCounts[error] != publishedErrorCounts[error]) {
+                COUNTS.setOpaque(publishedErrorCounts, error, errorCounts[error]);
+            }
+        }
+        LINES.setOpaque(this, linesBeforeInterval + intervalLines - linesUntilSample);
+        if (stack != null) {
+            STACK_HIGH_WATER_MARK.setOpaque(this, stack.highWaterMark());
+        }
+    }
+
+    /**
+     * Adds the tally of the repeated line to the counts once for each time it has run since it was last added.
+     */
+    private void addRepeats() {
+        if (repeats == 0) {
+            return;
+        }
+        int[] tally = repeatedLine.opcodeTally();
+        for (int i = 0; i < tally.length; i += 2) {
+            opcodeCounts[tally[i]] += tally[i + 1] * repeats;
+        }
+        repeats = 0;
+    }
+
+    /**
+     * Returns how many times an operator or command has occurred, as last published, given its OperatorRegistry opcode.
+     */
+    public long opcodeCount(int opcode) {
+        return (long) COUNTS.getOpaque(publishedOpcodeCounts, opcode);
+    }
+
+    /**
+     * Returns how many times an error has been reported, as last published, given its code from Errors.
+     */
+    public long errorCount(int error) {
+        return (long) COUNTS.getOpaque(publishedErrorCounts, error);
+    }
+
+    /**
+     * Returns the histogram of sampled line latencies.
+     */
+    public LatencyHistogram getLineLatency() {
+        return lineLatency;
+    }
+
+    @Override
+    public long getLines() {
+        return (long) LINES.getOpaque(this);
+    }
+
+    @Override
+    public Map<String, Long> getOperatorCounts() {
+        return opcodeCounts(false);
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        return opcodeCounts(true);
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int error = 0; error < publishedErrorCounts.length; error++) {
+            long count = errorCount(error);
+            if (count > 0) {
+                counts.put(Errors.name(error), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public int getStackHighWaterMark() {
+        return (int) STACK_HIGH_WATER_MARK.getOpaque(this);
+    }
+
+    @Override
+    public long getLatencySamples() {
+        return lineLatency.count();
+    }
+
+    @Override
+    public double getLatencyMeanNanos() {
+        return lineLatency.mean();
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return lineLatency.percentile(50);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return lineLatency.percentile(99);
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+        return lineLatency.percentile(99.9);
+    }
+
+    @Override
+    public long getLatencyMaxNanos() {
+        return lineLatency.max();
+    }
+
+    /**
+     * Returns every metric as "name=value" lines, in the format MetricsReporter writes to its file.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("lines=").append(getLines()).append('\n');
+        for (Map.Entry<String, Long> entry : getOperatorCounts().entrySet()) {
+            report.append("operator.").append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : getCommandCounts().entrySet()) {
+            report.append("command.").append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : getErrorCounts().entrySet()) {
+            report.append("error.").append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        report.append("stack.high_water_mark=").append(getStackHighWaterMark()).append('\n');
+        report.append("latency.samples=").append(getLatencySamples()).append('\n');
+        report.append("latency.mean_ns=").append(String.format("%.0f", getLatencyMeanNanos())).append('\n');
+        report.append("latency.p50_ns=").append(getLatencyP50Nanos()).append('\n');
+        report.append("latency.p99_ns=").append(getLatencyP99Nanos()).append('\n');
+        report.append("latency.p999_ns=").append(getLatencyP999Nanos()).append('\n');
+        report.append("latency.max_ns=").append(getLatencyMaxNanos()).append('\n');
+        return report.toString();
+    }
+
+    /**
+     * Returns the counts of the operators, or of the commands, that have occurred.
+     */
+    private Map<String, Long> opcodeCounts(boolean commands) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int opcode = 1; opcode < operators.size(); opcode++) {
+            long count = opcodeCount(opcode);
+            if (count > 0 && operators.isCommand(opcode) == commands) {
+                counts.put(String.valueOf(operators.symbol(opcode)), count);
+            }
+        }
+        return counts;
+    }
+}
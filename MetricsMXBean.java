@@ -0,0 +1,52 @@
+import java.util.Map;
+
+/**
+ * Management interface for the runtime metrics of an SRPN session, as seen through JMX.
+ * Counts are keyed by operator, command or error name and only include those that have occurred.
+ */
+
+public interface MetricsMXBean {
+
+    /**
+     * Returns the number of lines evaluated.
+     */
+    long getLines();
+
+    /**
+     * Returns how many times each operator has been applied, including those that underflowed.
+     */
+    Map<String, Long> getOperatorCounts();
+
+    /**
+     * Returns how many times each command has been executed.
+     */
+    Map<String, Long> getCommandCounts();
+
+    /**
+     * Returns how many times each kind of error has been reported.
+     */
+    Map<String, Long> getErrorCounts();
+
+    /**
+     * Returns the largest number of operands the stack has held.
+     */
+    int getStackHighWaterMark();
+
+    /**
+     * Returns how many lines had their latency recorded.
+     */
+    long getLatencySamples();
+
+    /**
+     * Returns the mean, median, 99th and 99.9th percentile and largest line latency in nanoseconds.
+     */
+    double getLatencyMeanNanos();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getLatencyP999Nanos();
+
+    long getLatencyMaxNanos();
+}
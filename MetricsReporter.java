@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Class for publishing the metrics of an SRPN session.
+ * The metrics can be registered with the platform MBean server, where tools such as
+ * jconsole can read them, and written to a local file on a fixed schedule. The file is
+ * replaced in one move, so a reader never sees it half written.
+ */
+
+public class MetricsReporter {
+
+    // Domain of the JMX names the metrics are registered under
+    private static final String DOMAIN = "srpn";
+
+    private final Metrics metrics;
+    private ObjectName registeredName;
+    private ScheduledExecutorService scheduler;
+
+    // Constructor for a reporter of the given metrics.
+    public MetricsReporter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as "srpn:type=Metrics,name=<name>".
+     */
+    public void registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+        server.registerMBean(metrics, objectName);
+        registeredName = objectName;
+    }
+
+    /**
+     * Writes the metrics to the given file every intervalSeconds, on a daemon thread.
+     */
+    public void startDumping(Path file, long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            throw new IllegalArgumentException("Dump interval must be positive: " + intervalSeconds);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "srpn-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            }
+            catch(IOException e) {
+                System.err.println("Could not write metrics: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the metrics to the given file now, replacing it.
+     */
+    public void dump(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, metrics.report().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Stops the scheduled dumps and unregisters the metrics from JMX.
+     */
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            }
+            catch(JMException e) {
+                // Already gone, which is all we wanted
+            }
+            registeredName = null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Operand stack for deep-stack mode, which holds its operands outside the Java heap so that
+ * a stack of millions of operands neither grows the heap nor lengthens garbage collection.
+ *
+ * Operands are kept as 32-bit ints in direct buffers of CHUNK_SIZE ints each, allocated as
+ * the stack first reaches them and kept until the stack is dropped, so memory grows with the
+ * deepest the stack has been rather than with its limit. Every value an operator or "r" can
+ * push fits in an int; an operand typed outside that range, which is only saturated once it
+ * is used, is kept on the heap by its position, with WIDE in its slot.
+ */
+
+public class OffHeapOperandStack extends OperandStack {
+
+    // Operands held by each direct buffer, a power of two
+    static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Slot value of an operand kept among the wide operands, unless none is kept at its position
+    private static final int WIDE = Integer.MIN_VALUE;
+
+    // Operands printed at a time by printTo
+    private static final int PRINT_BATCH = 4096;
+
+    private final int limit;
+    private IntBuffer[] chunks = new IntBuffer[0];
+    private int size;
+
+    // Operands outside the int range, by increasing position
+    private int[] widePositions = new int[0];
+    private long[] wideValues = new long[0];
+    private int wideCount;
+
+    // Scratch space for printTo
+    private int[] printed;
+
+    // Constructor for a stack holding at most the given number of operands.
+    public OffHeapOperandStack(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Stack limit must be positive: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int limit() {
+        return limit;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size >= limit;
+    }
+
+    @Override
+    public void push(long value) {
+        int chunk = size >>> CHUNK_SHIFT;
+        if (chunk == chunks.length || chunks[chunk] == null) {
+            grow(chunk);
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            pushWide(value);
+            chunks[chunk].put(size & CHUNK_MASK, WIDE);
+        } else {
+            chunks[chunk].put(size & CHUNK_MASK, (int) value);
+        }
+        size++;
+        reach(size);
+    }
+
+    @Override
+    public long pop() {
+        size--;
+        int value = chunks[size >>> CHUNK_SHIFT].get(size & CHUNK_MASK);
+        if (value == WIDE && wideCount > 0 && widePositions[wideCount - 1] == size) {
+            return wideValues[--wideCount];
+        }
+        return value;
+    }
+
+    @Override
+    public long peek() {
+        return get(size - 1);
+    }
+
+    @Override
+    public long get(int index) {
+        int value = chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+        if (value == WIDE && wideCount > 0) {
+            int wide = Arrays.binarySearch(widePositions, 0, wideCount, index);
+            if (wide >= 0) {
+                return wideValues[wide];
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        wideCount = 0;
+    }
+
+    /**
+     * Prints every operand from the bottom up, passing them to the sink in batches
+     * read straight out of the buffers.
+     */
+    public void printTo(OutputSink out) {
+        if (printed == null) {
+            printed = new int[PRINT_BATCH];
+        }
+        int wide = 0;
+        int index = 0;
+        while (index < size) {
+            // Print up to the next wide operand in batches, then the wide operand on its own
+            int end = wide < wideCount ? widePositions[wide] : size;
+            while (index < end) {
+                int offset = index & CHUNK_MASK;
+                int length = Math.min(Math.min(PRINT_BATCH, CHUNK_SIZE - offset), end - index);
+                chunks[index >>> CHUNK_SHIFT].get(offset, printed, 0, length);
+                out.printValues(printed, 0, length);
+                index += length;
+            }
+            if (wide < wideCount) {
+                out.printValue(wideValues[wide++]);
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Allocates the buffer for the given chunk.
+     */
+    private void grow(int chunk) {
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, chunks.length * 2));
+        }
+        int capacity = Math.min(CHUNK_SIZE, limit - (chunk << CHUNK_SHIFT));
+        chunks[chunk] = ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Keeps an operand outside the int range, about to be pushed, on the heap.
+     */
+    private void pushWide(long value) {
+        if (wideCount == widePositions.length) {
+            int capacity = Math.max(8, wideCount * 2);
+            widePositions = Arrays.copyOf(widePositions, capacity);
+            wideValues = Arrays.copyOf(wideValues, capacity);
+        }
+        widePositions[wideCount] = size;
+        wideValues[wideCount] = value;
+        wideCount++;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Class for the operand stack of the SRPN calculator.
+ * It keeps no operands itself: ArrayOperandStack holds them in a primitive array,
+ * PersistentOperandStack in an immutable list that can be snapshotted and
+ * OffHeapOperandStack outside the Java heap. It only tracks how deep the stack has been.
+ */
+
+public abstract class OperandStack {
+
+    // Largest number of operands the stack has held
+    private int highWaterMark;
+
+    /**
+     * Returns the number of operands on the stack.
+     */
+    public abstract int size();
+
+    /**
+     * Returns the maximum number of operands the stack can hold.
+     */
+    public abstract int limit();
+
+    /**
+     * Checks if the stack holds no operands.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Checks if the stack has reached its limit.
+     * Callers check this before pushing and report a stack overflow instead.
+     */
+    public boolean isFull() {
+        return size() >= limit();
+    }
+
+    /**
+     * Pushes an operand on top of the stack.
+     */
+    public abstract void push(long value);
+
+    /**
+     * Removes and returns the operand on top of the stack.
+     */
+    public abstract long pop();
+
+    /**
+     * Returns the operand on top of the stack without removing it.
+     */
+    public abstract long peek();
+
+    /**
+     * Returns the operand at the given position, counting from the bottom of the stack.
+     */
+    public abstract long get(int index);
+
+    /**
+     * Removes every operand from the stack.
+     */
+    public abstract void clear();
+
+    /**
+     * Returns the largest number of operands the stack has held.
+     * Clearing the stack does not reset it.
+     */
+    public final int highWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Notes that the stack has been as deep as the given depth, for operands whose
+     * pushes have been worked out in advance and skipped, as a FOLD instruction does.
+     */
+    public final void reach(int depth) {
+        if (depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+    }
+}
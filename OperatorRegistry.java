@@ -0,0 +1,257 @@
+import java.util.Arrays;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Class for the operators and commands SRPN understands, each resolved once from its
+ * character to a small dense opcode. Lines are compiled to opcodes, so evaluating them
+ * is a switch over consecutive ints, and everything else about an opcode (its character,
+ * arity and precedence) is a lookup in a small array.
+ *
+ * The built-in operators and commands always have the opcodes below. Further binary or
+ * unary operators can be registered with a character, a precedence and a function;
+ * extended() registers min, max, bitwise and and or, abs and not. The shared standard()
+ * registry holds only the built-ins and cannot be changed.
+ */
+
+public final class OperatorRegistry {
+
+    // Opcode of a character that is not an operator or command
+    public static final int NONE = 0;
+
+    // Built-in operators
+    public static final int ADD = 1;
+    public static final int SUBTRACT = 2;
+    public static final int MULTIPLY = 3;
+    public static final int DIVIDE = 4;
+    public static final int MODULO = 5;
+    public static final int POWER = 6;
+
+    // Built-in commands
+    public static final int RANDOM = 7;
+    public static final int PRINT_STACK = 8;
+    public static final int PRINT_TOP = 9;
+
+    // Opcode of the first registered operator
+    public static final int FIRST_EXTENSION = 10;
+
+    // Most opcodes a registry can hold, so that they fit in a byte
+    public static final int MAX_OPCODES = 128;
+
+    // Arity of a command, which takes no operands from the stack the way operators do
+    private static final int COMMAND_ARITY = 0;
+
+    private static final OperatorRegistry STANDARD = new OperatorRegistry().seal();
+
+    // Opcode by character, and character, arity, precedence and function by opcode
+    private final byte[] opcodes = new byte[128];
+    private char[] symbols = new char[16];
+    private byte[] arities = new byte[16];
+    private byte[] precedences = new byte[16];
+    private LongBinaryOperator[] binaryFunctions = new LongBinaryOperator[16];
+    private LongUnaryOperator[] unaryFunctions = new LongUnaryOperator[16];
+    private int size = 1;
+
+    // Distinct precedences, highest first
+    private byte[] precedenceLevels = new byte[0];
+
+    private boolean sealed;
+
+    // Constructor for a registry holding the built-in operators and commands, ready for more to be registered.
+    public OperatorRegistry() {
+        define('+', 2, 1, null, null);
+        define('-', 2, 1, null, null);
+        define('*', 2, 2, null, null);
+        define('/', 2, 2, null, null);
+        define('%', 2, 2, null, null);
+        define('^', 2, 3, null, null);
+        define('r', COMMAND_ARITY, 1, null, null);
+        define('d', COMMAND_ARITY, 1, null, null);
+        define('=', COMMAND_ARITY, 5, null, null);
+    }
+
+    /**
+     * Returns the shared registry of the built-in operators and commands.
+     */
+    public static OperatorRegistry standard() {
+        return STANDARD;
+    }
+
+    /**
+     * Returns a new registry with the built-ins and the extension operators:
+     * "<" min and ">" max at the precedence of "+", "&" bitwise and and "|" bitwise or
+     * at the precedence of "*", and the unary "!" abs and "~" bitwise not above "^".
+     */
+    public static OperatorRegistry extended() {
+        OperatorRegistry registry = new OperatorRegistry();
+        registry.registerBinary('<', 1, Math::min);
+        registry.registerBinary('>', 1, Math::max);
+        registry.registerBinary('&', 2, (a, b) -> a & b);
+        registry.registerBinary('|', 2, (a, b) -> a | b);
+        registry.registerUnary('!', 4, Math::abs);
+        registry.registerUnary('~', 4, a -> ~a);
+        return registry;
+    }
+
+    /**
+     * Registers a binary operator and returns its opcode.
+     * The function is given the saturated operands, second from the top first, and its result is saturated.
+     */
+    public int registerBinary(char symbol, int precedence, LongBinaryOperator function) {
+        checkRegistration(symbol, precedence);
+        return define(symbol, 2, precedence, function, null);
+    }
+
+    /**
+     * Registers a unary operator and returns its opcode.
+     * The function is given the saturated top of the stack, and its result is saturated.
+     */
+    public int registerUnary(char symbol, int precedence, LongUnaryOperator function) {
+        checkRegistration(symbol, precedence);
+        return define(symbol, 1, precedence, null, function);
+    }
+
+    /**
+     * Returns the opcode of a character, or NONE if it is not an operator or command.
+     */
+    public int opcodeOf(char c) {
+        return c < opcodes.length ? opcodes[c] : NONE;
+    }
+
+    /**
+     * Returns the precedence of a character, or 0 if it is not an operator or command.
+     */
+    public int precedenceOf(char c) {
+        return precedences[opcodeOf(c)];
+    }
+
+    /**
+     * Returns the character of an opcode.
+     */
+    public char symbol(int opcode) {
+        return symbols[opcode];
+    }
+
+    /**
+     * Returns the number of operands an operator takes from the stack, or 0 for a command.
+     */
+    public int arity(int opcode) {
+        return arities[opcode];
+    }
+
+    /**
+     * Returns the precedence of an opcode: within a merged token such as "2+3*4",
+     * operators and commands of higher precedence are evaluated first.
+     */
+    public int precedence(int opcode) {
+        return precedences[opcode];
+    }
+
+    /**
+     * Checks if an opcode is a command rather than an operator.
+     */
+    public boolean isCommand(int opcode) {
+        return opcode != NONE && arities[opcode] == COMMAND_ARITY;
+    }
+
+    /**
+     * Returns one more than the highest opcode in use, so that every opcode is below it.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Applies a registered binary operator.
+     */
+    public long apply(int opcode, long a, long b) {
+        return binaryFunctions[opcode].applyAsLong(a, b);
+    }
+
+    /**
+     * Applies a registered unary operator.
+     */
+    public long apply(int opcode, long a) {
+        return unaryFunctions[opcode].applyAsLong(a);
+    }
+
+    /**
+     * Returns the distinct precedences of the operators and commands, highest first.
+     * The array is shared and must not be changed.
+     */
+    byte[] precedenceLevels() {
+        return precedenceLevels;
+    }
+
+    /**
+     * Stops any more operators being registered.
+     */
+    private OperatorRegistry seal() {
+        sealed = true;
+        return this;
+    }
+
+    /**
+     * Checks that an operator can be registered with the given character and precedence.
+     * The character must be one the input keeps as it is and does not already give a meaning.
+     */
+    private void checkRegistration(char symbol, int precedence) {
+        if (sealed) {
+            throw new IllegalStateException("The standard registry cannot be changed");
+        }
+        if (symbol <= ' ' || symbol >= opcodes.length || Character.isDigit(symbol) || symbol == '#'
+                || Character.isUpperCase(symbol)) {
+            throw new IllegalArgumentException("Cannot use '" + symbol + "' as an operator");
+        }
+        if (opcodes[symbol] != NONE) {
+            throw new IllegalArgumentException("'" + symbol + "' is already an operator or command");
+        }
+        if (precedence <= 0 || precedence > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Precedence must be between 1 and " + Byte.MAX_VALUE + ": " + precedence);
+        }
+        if (size == MAX_OPCODES) {
+            throw new IllegalStateException("No more than " + (MAX_OPCODES - 1) + " operators and commands can be registered");
+        }
+    }
+
+    /**
+     * Gives a character the next opcode.
+     */
+    private int define(char symbol, int arity, int precedence, LongBinaryOperator binary, LongUnaryOperator unary) {
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+            arities = Arrays.copyOf(arities, size * 2);
+            precedences = Arrays.copyOf(precedences, size * 2);
+            binaryFunctions = Arrays.copyOf(binaryFunctions, size * 2);
+            unaryFunctions = Arrays.copyOf(unaryFunctions, size * 2);
+        }
+        int opcode = size++;
+        opcodes[symbol] = (byte) opcode;
+        symbols[opcode] = symbol;
+        arities[opcode] = (byte) arity;
+        precedences[opcode] = (byte) precedence;
+        binaryFunctions[opcode] = binary;
+        unaryFunctions[opcode] = unary;
+        addPrecedenceLevel((byte) precedence);
+        return opcode;
+    }
+
+    /**
+     * Adds a precedence to the levels, keeping them highest first.
+     */
+    private void addPrecedenceLevel(byte precedence) {
+        for (byte level : precedenceLevels) {
+            if (level == precedence) {
+                return;
+            }
+        }
+        byte[] levels = Arrays.copyOf(precedenceLevels, precedenceLevels.length + 1);
+        int i = levels.length - 1;
+        while (i > 0 && levels[i - 1] < precedence) {
+            levels[i] = levels[i - 1];
+            i--;
+        }
+        levels[i] = precedence;
+        precedenceLevels = levels;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Interface for where the SRPN calculator writes its results and error messages.
+ * Each call writes one line.
+ */
+
+public interface OutputSink {
+
+    /**
+     * Writes a line of text.
+     */
+    void printLine(String text);
+
+    /**
+     * Writes a number on its own line.
+     */
+    void printValue(long value);
+
+    /**
+     * Writes each of a run of numbers on its own line.
+     */
+    default void printValues(int[] values, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            printValue(values[i]);
+        }
+    }
+
+    /**
+     * Makes sure everything written so far has reached its destination.
+     */
+    void flush();
+}
@@ -0,0 +1,118 @@
+/**
+ * Operand stack kept as an immutable linked list, so that its whole contents can be
+ * captured and put back in constant time, however deep it is, by holding on to its top.
+ * Stacks captured this way share every operand below the point where they differ.
+ *
+ * Pushing allocates a node, so this is slower than an ArrayOperandStack, and SRPN
+ * only switches to it once a session is snapshotted, forked or given an undo history.
+ * Reading an operand by position turns the list into an array first, which is kept until
+ * the stack next changes, so "d" stays linear in the depth of the stack.
+ */
+
+public class PersistentOperandStack extends OperandStack {
+
+    /**
+     * An operand and everything below it, which is never changed once made.
+     */
+    static final class Node {
+        final long value;
+        final Node next;
+        final int size;
+
+        Node(long value, Node next) {
+            this.value = value;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+        }
+    }
+
+    private Node top;
+
+    private final int limit;
+
+    // The operands from the bottom up, valid while positioned is true, grown as the stack deepens
+    private long[] positions = new long[Constants.STACK_LIMIT];
+    private boolean positioned;
+
+    // Constructor for a stack holding at most the given number of operands.
+    public PersistentOperandStack(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the contents of the stack, which stay as they are whatever is done to the stack later.
+     */
+    Node snapshot() {
+        return top;
+    }
+
+    /**
+     * Replaces the contents of the stack with ones returned by snapshot.
+     */
+    void restore(Node contents) {
+        top = contents;
+        positioned = false;
+        reach(size());
+    }
+
+    @Override
+    public int size() {
+        return top == null ? 0 : top.size;
+    }
+
+    @Override
+    public int limit() {
+        return limit;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return top == null;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() >= limit;
+    }
+
+    @Override
+    public void push(long value) {
+        top = new Node(value, top);
+        positioned = false;
+        reach(top.size);
+    }
+
+    @Override
+    public long pop() {
+        long value = top.value;
+        top = top.next;
+        positioned = false;
+        return value;
+    }
+
+    @Override
+    public long peek() {
+        return top.value;
+    }
+
+    @Override
+    public long get(int index) {
+        if (!positioned) {
+            int i = size();
+            if (i > positions.length) {
+                positions = new long[Math.max(i, positions.length * 2)];
+            }
+            for (Node node = top; node != null; node = node.next) {
+                positions[--i] = node.value;
+            }
+            positioned = true;
+        }
+        return positions[index];
+    }
+
+    @Override
+    public void clear() {
+        top = null;
+        positioned = false;
+    }
+}
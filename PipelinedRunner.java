@@ -0,0 +1,241 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Class for running input through an SRPN session on three threads: one reading lines, one
+ * evaluating them, and one writing the output. Lines travel from the reader to the evaluator
+ * in batches, and output from the evaluator to the writer in byte chunks, each through an
+ * SpscRing; batches and chunks go back through a second ring once used, so they are reused
+ * rather than allocated. When a ring is full its producer waits, so a slow writer holds back
+ * the evaluator, and a slow evaluator the reader, and memory stays bounded.
+ *
+ * The evaluator writes through a BufferedOutputSink as the sequential loop in Main does, and
+ * chunks are written in the order they were made, so the output is byte for byte the same.
+ * The reader hands a batch over as soon as no more input is waiting, so lines typed at a
+ * terminal are answered straight away, while piped input moves in full batches.
+ *
+ * The mode is experimental. The threads only pay off with a core for each of them, and
+ * PipelineBenchmark has so far only been run on one core, where they take turns and the
+ * pipeline is about a fifth slower than the sequential loop.
+ */
+
+public class PipelinedRunner {
+
+    // Lines handed from the reader to the evaluator at a time
+    static final int BATCH_LINES = 512;
+
+    // Bytes of output handed from the evaluator to the writer at a time
+    static final int CHUNK_BYTES = 64 * 1024;
+
+    // Batches and chunks in flight between two threads
+    private static final int RING_CAPACITY = 16;
+
+    /**
+     * Lines read together; count is -1 for the batch that marks the end of the input.
+     */
+    private static final class Batch {
+        final String[] lines = new String[BATCH_LINES];
+        int count;
+    }
+
+    /**
+     * Bytes of output; length is -1 for the chunk that marks the end of the output.
+     */
+    private static final class Chunk {
+        final byte[] bytes = new byte[CHUNK_BYTES];
+        int length;
+    }
+
+    private final SpscRing<Batch> fullBatches = new SpscRing<>(RING_CAPACITY);
+    private final SpscRing<Batch> freeBatches = new SpscRing<>(RING_CAPACITY);
+    private final SpscRing<Chunk> fullChunks = new SpscRing<>(RING_CAPACITY);
+    private final SpscRing<Chunk> freeChunks = new SpscRing<>(RING_CAPACITY);
+
+    // Where the session writes, passing its bytes on to the writer thread
+    private final OutputSink output;
+
+    // Failures of the reader and writer threads, reported once the pipeline has drained
+    private volatile IOException readError;
+    private volatile IOException writeError;
+
+    private long lines;
+
+    // Constructor for a runner whose output is passed on by the given policy, with its batches and chunks allocated up front.
+    public PipelinedRunner(FlushPolicy policy, int flushBytes) {
+        for (int i = 0; i < RING_CAPACITY; i++) {
+            freeBatches.put(new Batch());
+            freeChunks.put(new Chunk());
+        }
+        output = new BufferedOutputSink(new ChunkStream(), policy, flushBytes);
+    }
+
+    /**
+     * Returns the sink the session run by this runner must write to.
+     */
+    public OutputSink output() {
+        return output;
+    }
+
+    /**
+     * Returns the number of lines evaluated.
+     */
+    public long lines() {
+        return lines;
+    }
+
+    /**
+     * Runs every line read from in through the session, which must write to output(), writing what it
+     * prints to out. Returns once the input has ended, or a modulo by zero has ended the session, and
+     * everything printed has been written. The recorder, if there is one, is told where each line starts and ends.
+     */
+    public void run(SRPN srpn, InputStream in, OutputStream out, TraceRecorder recorder) throws IOException {
+        Thread reader = new Thread(() -> read(in), "srpn-reader");
+        // The reader may be waiting for input that never comes once the session has ended
+        reader.setDaemon(true);
+        Thread writer = new Thread(() -> write(out), "srpn-writer");
+        reader.start();
+        writer.start();
+        try {
+            evaluate(srpn, recorder);
+        } finally {
+            output.flush();
+            Chunk end = freeChunks.take();
+            end.length = -1;
+            fullChunks.put(end);
+            joinUninterruptibly(writer);
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        if (readError != null) {
+            throw readError;
+        }
+    }
+
+    /**
+     * Evaluates batches of lines until the input or the session ends, passing output on after each batch.
+     */
+    private void evaluate(SRPN srpn, TraceRecorder recorder) {
+        while (true) {
+            Batch batch = fullBatches.take();
+            if (batch.count < 0) {
+                break;
+            }
+            for (int i = 0; i < batch.count && !srpn.isTerminated(); i++) {
+                if (recorder != null) {
+                    recorder.startLine(batch.lines[i]);
+                }
+                srpn.processCommand(batch.lines[i]);
+                if (recorder != null) {
+                    recorder.endLine();
+                }
+                lines++;
+            }
+            Arrays.fill(batch.lines, 0, batch.count, null);
+            freeBatches.put(batch);
+            output.flush();
+            if (srpn.isTerminated() || writeError != null) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads lines into batches until the input ends, on the reader thread.
+     */
+    private void read(InputStream in) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in), CHUNK_BYTES);
+        Batch batch = freeBatches.take();
+        batch.count = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                batch.lines[batch.count++] = line;
+                // Hand over a full batch, or whatever has been read once no more input is waiting
+                if (batch.count == BATCH_LINES || !reader.ready()) {
+                    fullBatches.put(batch);
+                    batch = freeBatches.take();
+                    batch.count = 0;
+                }
+            }
+        } catch (IOException e) {
+            readError = e;
+        }
+        // The lines read before a failure are still evaluated
+        if (batch.count > 0) {
+            fullBatches.put(batch);
+            batch = freeBatches.take();
+        }
+        batch.count = -1;
+        fullBatches.put(batch);
+    }
+
+    /**
+     * Writes chunks of output until the end marker, on the writer thread.
+     */
+    private void write(OutputStream out) {
+        while (true) {
+            Chunk chunk = fullChunks.take();
+            if (chunk.length < 0) {
+                break;
+            }
+            if (writeError == null) {
+                try {
+                    out.write(chunk.bytes, 0, chunk.length);
+                } catch (IOException e) {
+                    writeError = e;
+                }
+            }
+            freeChunks.put(chunk);
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            if (writeError == null) {
+                writeError = e;
+            }
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stream the evaluator's sink writes to, which copies what it is given into chunks for the writer.
+     */
+    private final class ChunkStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                Chunk chunk = freeChunks.take();
+                chunk.length = Math.min(length, CHUNK_BYTES);
+                System.arraycopy(bytes, offset, chunk.bytes, 0, chunk.length);
+                fullChunks.put(chunk);
+                offset += chunk.length;
+                length -= chunk.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for profiling a script: which of its lines, and which operators and commands, the
+ * time goes on. SRPN tells it where each line starts and ends, how long the line took to
+ * clean and compile, to evaluate and to write out, and each token it evaluates and error it
+ * reports. Lines with the same text, such as the body of a script run over many inputs, are
+ * one entry, named after the first line number they were read at.
+ *
+ * At most maxLines entries are kept. When a new text would take one more, the half of the
+ * entries with the least time, or the fewest runs among those with the same time, are added
+ * up into one "(other lines)" entry, so the lines kept are those the time goes on however
+ * late in the script they first appear. The report says how much time went to the rest.
+ *
+ * Token and error counts cover every line. Only one line in every sampleInterval is timed,
+ * and the tokens of a timed line are only timed one by one if token timing is on, since that
+ * costs two clock reads a token; so the overhead goes from a few counts a line up to timing
+ * every token of every line. Once the script has run, report() gives the lines and tokens
+ * sorted by time, and collapsedStacks() the same times in the collapsed-stack format that
+ * flame graph tools read, a line per stack of "script;line;phase;token" frames and its nanoseconds.
+ */
+
+public class Profiler {
+
+    // Phases of a line
+    public static final int CLEAN = 0;
+    public static final int EVALUATE = 1;
+    public static final int OUTPUT = 2;
+    private static final String[] PHASE_NAMES = {"clean", "evaluate", "output"};
+
+    // Symbols standing for an operand and for an unrecognised character, which no operator or command has
+    public static final char OPERAND = 0;
+    public static final char UNRECOGNISED = 1;
+
+    // Most distinct lines profiled one by one unless the constructor is given another number
+    public static final int DEFAULT_MAX_LINES = 10000;
+
+    // Longest line text shown, in the report and in the frames of the collapsed stacks
+    private static final int TEXT_LENGTH = 40;
+
+    /**
+     * The counts and times of the lines with the same text.
+     */
+    private static final class LineProfile {
+        private final long number;
+        private final String text;
+        private long runs;
+        private long tokens;
+        private long errors;
+        private final long[] phaseNanos = new long[PHASE_NAMES.length];
+        // Times of the tokens by slot, when they are timed
+        private long[] tokenNanos = new long[0];
+
+        private LineProfile(long number, String text) {
+            this.number = number;
+            this.text = text;
+        }
+
+        private long nanos() {
+            return phaseNanos[CLEAN] + phaseNanos[EVALUATE] + phaseNanos[OUTPUT];
+        }
+    }
+
+    private final int sampleInterval;
+    private final boolean timeTokens;
+    private final int maxLines;
+
+    private final Map<String, LineProfile> lines = new HashMap<>();
+    private final LineProfile otherLines = new LineProfile(0, "(other lines)");
+    private long lineNumber;
+
+    // Entries added up into otherLines to make room for others
+    private long foldedLines;
+
+    // Slots of the token symbols seen, in the order they were first seen, and the counts and times of each
+    private final byte[] slots = new byte[128];
+    private final char[] symbols = new char[128];
+    private int slotCount;
+    private long[] tokenCounts = new long[128];
+    private long[] tokenErrors = new long[128];
+    private long[] tokenNanos = new long[128];
+
+    // The line being evaluated, or the last one until the next starts, whether it is timed and whether it has ended
+    private LineProfile line;
+    private boolean timingLine;
+    private boolean inLine;
+    private int linesUntilSample = 1;
+
+    // Slot of the token being evaluated, or -1 between tokens
+    private int token = -1;
+
+    // Constructor for a profiler timing one line in every sampleInterval, and its tokens one by one if timeTokens is set.
+    public Profiler(int sampleInterval, boolean timeTokens) {
+        this(sampleInterval, timeTokens, DEFAULT_MAX_LINES);
+    }
+
+    // Constructor for a profiler as above that keeps at most maxLines lines one by one.
+    public Profiler(int sampleInterval, boolean timeTokens, int maxLines) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        if (maxLines <= 0) {
+            throw new IllegalArgumentException("Most lines must be positive: " + maxLines);
+        }
+        this.sampleInterval = sampleInterval;
+        this.timeTokens = timeTokens;
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * Marks the start of a line. Returns whether it is timed.
+     */
+    public boolean startLine(CharSequence text) {
+        lineNumber++;
+        String key = text.toString();
+        line = lines.get(key);
+        if (line == null) {
+            if (lines.size() >= maxLines) {
+                foldQuietestLines();
+            }
+            line = new LineProfile(lineNumber, key);
+            lines.put(key, line);
+        }
+        line.runs++;
+        inLine = true;
+        timingLine = --linesUntilSample == 0;
+        if (timingLine) {
+            linesUntilSample = sampleInterval;
+        }
+        return timingLine;
+    }
+
+    /**
+     * Checks if the current line is timed.
+     */
+    public boolean isTimingLine() {
+        return timingLine;
+    }
+
+    /**
+     * Checks if the tokens of the current line are timed one by one.
+     */
+    public boolean isTimingTokens() {
+        return timingLine && timeTokens;
+    }
+
+    /**
+     * Adds the time the current line, or the last one once it has ended, spent in a phase.
+     */
+    public void phase(int phase, long nanos) {
+        line.phaseNanos[phase] += nanos;
+    }
+
+    /**
+     * Marks the start of a token, given its operator or command symbol, OPERAND or UNRECOGNISED.
+     */
+    public void startToken(char symbol) {
+        token = slot(symbol);
+        tokenCounts[token]++;
+        line.tokens++;
+    }
+
+    /**
+     * Marks the end of the current token, adding the time it took if it was timed.
+     */
+    public void endToken(long nanos) {
+        if (nanos > 0) {
+            tokenNanos[token] += nanos;
+            if (line.tokenNanos.length <= token) {
+                line.tokenNanos = Arrays.copyOf(line.tokenNanos, slotCount);
+            }
+            line.tokenNanos[token] += nanos;
+        }
+        token = -1;
+    }
+
+    /**
+     * Counts an error, against the current line and the current token if there is one.
+     * Errors outside a line, such as those of word definitions, are not counted.
+     */
+    public void error(int error) {
+        if (inLine) {
+            line.errors++;
+        }
+        if (token >= 0) {
+            tokenErrors[token]++;
+        }
+    }
+
+    /**
+     * Marks the end of the current line.
+     */
+    public void endLine() {
+        token = -1;
+        inLine = false;
+    }
+
+    /**
+     * Returns the number of lines profiled.
+     */
+    public long lines() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the report: the lines, and the operators and commands, sorted by the time spent on
+     * them, most first, with their counts and errors, and the time spent in each phase.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        List<LineProfile> sorted = sortedLines();
+        long[] phaseNanos = new long[PHASE_NAMES.length];
+        for (LineProfile profile : sorted) {
+            for (int phase = 0; phase < phaseNanos.length; phase++) {
+                phaseNanos[phase] += profile.phaseNanos[phase];
+            }
+        }
+
+        report.append(String.format("%d lines, %d distinct kept, 1 in %d timed%s%n", lineNumber, lines.size(),
+                sampleInterval, timeTokens ? " with their tokens" : ""));
+        for (int phase = 0; phase < phaseNanos.length; phase++) {
+            report.append(String.format("%-9s %12.3f ms%n", PHASE_NAMES[phase], phaseNanos[phase] / 1e6));
+        }
+        if (otherLines.runs > 0) {
+            long totalNanos = phaseNanos[CLEAN] + phaseNanos[EVALUATE] + phaseNanos[OUTPUT];
+            report.append(String.format("%.3f ms, %.1f%% of the time, went to %d runs of %d lines not among the %d kept,"
+                    + " shown as (other lines)%n", otherLines.nanos() / 1e6,
+                    totalNanos == 0 ? 0.0 : 100.0 * otherLines.nanos() / totalNanos, otherLines.runs, foldedLines,
+                    maxLines));
+        }
+
+        report.append(String.format("%n%-8s %-42s %10s %10s %8s %11s %11s %11s %11s%n", "line", "text",
+                "runs", "tokens", "errors", "clean ms", "evaluate ms", "output ms", "total ms"));
+        for (LineProfile profile : sorted) {
+            report.append(String.format("%-8s %-42s %10d %10d %8d %11.3f %11.3f %11.3f %11.3f%n",
+                    profile == otherLines ? "" : Long.toString(profile.number), quote(profile),
+                    profile.runs, profile.tokens, profile.errors, profile.phaseNanos[CLEAN] / 1e6,
+                    profile.phaseNanos[EVALUATE] / 1e6, profile.phaseNanos[OUTPUT] / 1e6, profile.nanos() / 1e6));
+        }
+
+        Integer[] order = new Integer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> tokenNanos[a] != tokenNanos[b]
+                ? Long.compare(tokenNanos[b], tokenNanos[a]) : Long.compare(tokenCounts[b], tokenCounts[a]));
+        report.append(String.format("%n%-14s %12s %10s %11s%n", "token", "count", "errors", "time ms"));
+        for (int i : order) {
+            report.append(String.format("%-14s %12d %10d %11.3f%n", name(symbols[i]), tokenCounts[i],
+                    tokenErrors[i], tokenNanos[i] / 1e6));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Returns the times of the lines in collapsed-stack format: a "script;line;phase" stack for
+     * each phase a line spent time in, and a "script;line;evaluate;token" stack for each token
+     * timed, each followed by a space and its nanoseconds.
+     */
+    public String collapsedStacks() {
+        StringBuilder stacks = new StringBuilder();
+        for (LineProfile profile : sortedLines()) {
+            String frame = "script;" + (profile == otherLines ? "" : "line " + profile.number + " ")
+                    + quote(profile).replace(';', ',');
+            long tokensNanos = 0;
+            for (int slot = 0; slot < profile.tokenNanos.length; slot++) {
+                if (profile.tokenNanos[slot] > 0) {
+                    stacks.append(frame).append(";evaluate;").append(name(symbols[slot]).replace(';', ','))
+                            .append(' ').append(profile.tokenNanos[slot]).append('\n');
+                    tokensNanos += profile.tokenNanos[slot];
+                }
+            }
+            for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+                // Evaluating a line takes a little longer than its tokens, which is shown as the phase's own time
+                long nanos = profile.phaseNanos[phase] - (phase == EVALUATE ? tokensNanos : 0);
+                if (nanos > 0) {
+                    stacks.append(frame).append(';').append(PHASE_NAMES[phase]).append(' ').append(nanos).append('\n');
+                }
+            }
+        }
+        return stacks.toString();
+    }
+
+    /**
+     * Writes the report and the collapsed stacks to the given files.
+     */
+    public void write(Path reportFile, Path stacksFile) throws IOException {
+        Files.write(reportFile, report().getBytes(StandardCharsets.UTF_8));
+        Files.write(stacksFile, collapsedStacks().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds up the half of the lines with the least time into otherLines, to make room for new ones.
+     */
+    private void foldQuietestLines() {
+        List<LineProfile> quietest = new ArrayList<>(lines.values());
+        quietest.sort((a, b) -> a.nanos() != b.nanos() ? Long.compare(a.nanos(), b.nanos()) : Long.compare(a.runs, b.runs));
+        for (LineProfile profile : quietest.subList(0, Math.max(1, quietest.size() / 2))) {
+            lines.remove(profile.text);
+            otherLines.runs += profile.runs;
+            otherLines.tokens += profile.tokens;
+            otherLines.errors += profile.errors;
+            for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+                otherLines.phaseNanos[phase] += profile.phaseNanos[phase];
+            }
+            if (otherLines.tokenNanos.length < profile.tokenNanos.length) {
+                otherLines.tokenNanos = Arrays.copyOf(otherLines.tokenNanos, profile.tokenNanos.length);
+            }
+            for (int slot = 0; slot < profile.tokenNanos.length; slot++) {
+                otherLines.tokenNanos[slot] += profile.tokenNanos[slot];
+            }
+            foldedLines++;
+        }
+    }
+
+    /**
+     * Returns the slot of a token symbol, giving it one the first time it is seen.
+     */
+    private int slot(char symbol) {
+        if (symbol >= slots.length) {
+            throw new IllegalArgumentException("Not a token symbol: " + symbol);
+        }
+        if (slots[symbol] == 0) {
+            symbols[slotCount] = symbol;
+            slots[symbol] = (byte) ++slotCount;
+        }
+        return slots[symbol] - 1;
+    }
+
+    /**
+     * Returns the lines with the time spent on them, most first, then those without, by line number.
+     */
+    private List<LineProfile> sortedLines() {
+        List<LineProfile> sorted = new ArrayList<>(lines.values());
+        if (otherLines.runs > 0) {
+            sorted.add(otherLines);
+        }
+        sorted.sort((a, b) -> a.nanos() != b.nanos() ? Long.compare(b.nanos(), a.nanos()) : Long.compare(a.number, b.number));
+        return sorted;
+    }
+
+    /**
+     * Returns the text of a line in quotes, shortened to TEXT_LENGTH characters.
+     */
+    private static String quote(LineProfile profile) {
+        if (profile.number == 0) {
+            return profile.text;
+        }
+        String text = profile.text.length() > TEXT_LENGTH ? profile.text.substring(0, TEXT_LENGTH - 3) + "..." : profile.text;
+        return "\"" + text + "\"";
+    }
+
+    /**
+     * Returns the name of a token symbol.
+     */
+    private static String name(char symbol) {
+        switch (symbol) {
+            case OPERAND:
+                return "operand";
+            case UNRECOGNISED:
+                return "unrecognised";
+            default:
+                return String.valueOf(symbol);
+        }
+    }
+}
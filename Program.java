@@ -0,0 +1,245 @@
+import java.util.Arrays;
+
+/**
+ * Class for a compiled line of input.
+ * Each instruction is a single int holding its kind in the high byte and, for an operator or
+ * command, its OperatorRegistry opcode in the rest. The constant a PUSH instruction pushes, and
+ * the fold a FOLD instruction stands for, are numbered in an array beside the instructions, so
+ * that a line may push any number of operands. Instructions other than operators and commands
+ * are therefore looked up by their index in the line.
+ * Unrecognised characters of the line are kept so they can be reported again.
+ *
+ * A FOLD instruction, added by ConstantFolder, stands in front of a run of instructions
+ * whose outcome is known in advance. If the stack has room for the run, its values are
+ * pushed and the run is skipped; otherwise the run is executed as written.
+ */
+
+public final class Program {
+
+    // Instruction kinds, numbered like the Lexer token types they come from
+    public static final int PUSH = Lexer.OPERAND;
+    public static final int OPERATOR = Lexer.OPERATOR;
+    public static final int COMMAND = Lexer.COMMAND;
+    public static final int FOLD = 8;
+
+    // Layout of an instruction
+    private static final int KIND_SHIFT = 24;
+    private static final int OPCODE_MASK = (1 << KIND_SHIFT) - 1;
+
+    private final int[] code;
+    private final long[] constants;
+
+    // For each PUSH instruction the number of its constant, and for each FOLD the number of its fold
+    private final int[] arguments;
+    private final char[] unrecognised;
+
+    // For each fold: the instructions it skips, the stack depth the run needs,
+    // and the range of constants it pushes
+    private final int[] foldLengths;
+    private final int[] foldPeaks;
+    private final int[] foldFirstValues;
+    private final int[] foldValueCounts;
+
+    // Times the line has been executed while it is interpreted, and its compiled form once SRPN has compiled it
+    private int executions;
+    private CompiledProgram compiled;
+
+    // Opcodes of the operators and commands in the line, each followed by how often it occurs, once counted
+    private int[] opcodeTally;
+
+    private Program(int[] code, int[] arguments, long[] constants, char[] unrecognised) {
+        this(code, arguments, constants, unrecognised, new int[0], new int[0], new int[0], new int[0]);
+    }
+
+    Program(int[] code, int[] arguments, long[] constants, char[] unrecognised,
+            int[] foldLengths, int[] foldPeaks, int[] foldFirstValues, int[] foldValueCounts) {
+        this.code = code;
+        this.arguments = arguments;
+        this.constants = constants;
+        this.unrecognised = unrecognised;
+        this.foldLengths = foldLengths;
+        this.foldPeaks = foldPeaks;
+        this.foldFirstValues = foldFirstValues;
+        this.foldValueCounts = foldValueCounts;
+    }
+
+    /**
+     * Compiles the tokens of a line.
+     */
+    public static Program of(TokenBuffer tokens) {
+        int[] code = new int[tokens.size()];
+        int[] arguments = new int[tokens.size()];
+        long[] constants = new long[tokens.size()];
+        int constantCount = 0;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            int kind = tokens.type(i);
+            if (kind == PUSH) {
+                constants[constantCount] = tokens.value(i);
+                code[i] = kind << KIND_SHIFT;
+                arguments[i] = constantCount++;
+            } else {
+                code[i] = (kind << KIND_SHIFT) | tokens.opcode(i);
+            }
+        }
+
+        char[] unrecognised = new char[tokens.unrecognisedCount()];
+        for (int i = 0; i < unrecognised.length; i++) {
+            unrecognised[i] = tokens.unrecognised(i);
+        }
+        return new Program(code, arguments, Arrays.copyOf(constants, constantCount), unrecognised);
+    }
+
+    /**
+     * Returns the number of instructions.
+     */
+    public int length() {
+        return code.length;
+    }
+
+    /**
+     * Returns the instruction at the given index.
+     */
+    public int instruction(int index) {
+        return code[index];
+    }
+
+    /**
+     * Builds an instruction from its kind and, for an operator or command, its opcode.
+     */
+    static int instruction(int kind, int opcode) {
+        return (kind << KIND_SHIFT) | opcode;
+    }
+
+    /**
+     * Returns the number of the constant or fold of the PUSH or FOLD instruction at the given index.
+     */
+    int argument(int index) {
+        return arguments[index];
+    }
+
+    /**
+     * Returns the kind of an instruction: PUSH, OPERATOR, COMMAND or FOLD.
+     */
+    public static int kind(int instruction) {
+        return instruction >>> KIND_SHIFT;
+    }
+
+    /**
+     * Returns the OperatorRegistry opcode of an OPERATOR or COMMAND instruction.
+     */
+    public static int opcode(int instruction) {
+        return instruction & OPCODE_MASK;
+    }
+
+    /**
+     * Returns the constant pushed by the PUSH instruction at the given index.
+     */
+    public long constant(int index) {
+        return constants[arguments[index]];
+    }
+
+    /**
+     * Returns the number of constants, which are numbered from 0.
+     */
+    int constantCount() {
+        return constants.length;
+    }
+
+    /**
+     * Returns a constant by its number.
+     */
+    long constantAt(int index) {
+        return constants[index];
+    }
+
+    /**
+     * Returns the number of instructions the FOLD instruction at the given index stands for, which follow it.
+     */
+    public int foldLength(int index) {
+        return foldLengths[arguments[index]];
+    }
+
+    /**
+     * Returns how many operands deep the stack gets, above where it started, while the run of
+     * the FOLD instruction at the given index executes.
+     */
+    public int foldPeak(int index) {
+        return foldPeaks[arguments[index]];
+    }
+
+    /**
+     * Returns the number of values the FOLD instruction at the given index pushes.
+     */
+    public int foldValueCount(int index) {
+        return foldValueCounts[arguments[index]];
+    }
+
+    /**
+     * Returns a value pushed by the FOLD instruction at the given index, counting from the first pushed.
+     */
+    public long foldValue(int index, int value) {
+        return constants[foldFirstValues[arguments[index]] + value];
+    }
+
+    /**
+     * Counts an execution of the line, returning the number of executions so far.
+     */
+    int countExecution() {
+        return ++executions;
+    }
+
+    /**
+     * Returns the compiled form of the line, CompiledProgram.INTERPRETED if it cannot be compiled,
+     * or null if it has not been compiled yet.
+     */
+    CompiledProgram compiled() {
+        return compiled;
+    }
+
+    void setCompiled(CompiledProgram compiled) {
+        this.compiled = compiled;
+    }
+
+    /**
+     * Returns the opcode of each operator and command in the line, those of folded runs included,
+     * each followed by the number of times it occurs, counting them the first time.
+     */
+    int[] opcodeTally() {
+        if (opcodeTally == null) {
+            // Opcodes are OperatorRegistry indices, so every one is below MAX_OPCODES
+            int[] counts = new int[OperatorRegistry.MAX_OPCODES];
+            int distinct = 0;
+            for (int instruction : code) {
+                int kind = kind(instruction);
+                if ((kind == OPERATOR || kind == COMMAND) && counts[opcode(instruction)]++ == 0) {
+                    distinct++;
+                }
+            }
+            int[] tally = new int[2 * distinct];
+            int next = 0;
+            for (int opcode = 0; opcode < counts.length; opcode++) {
+                if (counts[opcode] > 0) {
+                    tally[next++] = opcode;
+                    tally[next++] = counts[opcode];
+                }
+            }
+            opcodeTally = tally;
+        }
+        return opcodeTally;
+    }
+
+    /**
+     * Returns the number of unrecognised characters in the line.
+     */
+    public int unrecognisedCount() {
+        return unrecognised.length;
+    }
+
+    /**
+     * Returns the unrecognised character at the given index.
+     */
+    public char unrecognised(int index) {
+        return unrecognised[index];
+    }
+}
@@ -0,0 +1,158 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class for caching compiled lines, keyed by the raw line of input.
+ * When the cache is full the least recently used line is evicted,
+ * so memory stays flat however many distinct lines are seen.
+ * Lines can be looked up from any CharSequence, such as a view over
+ * mapped bytes, without copying them into a String first.
+ */
+
+public class ProgramCache {
+
+    // Maximum number of lines kept, 0 disables the cache
+    private final int maxSize;
+
+    // Lines in least recently used order
+    private final LinkedHashMap<Key, Program> programs;
+
+    // Key reused for lookups
+    private final Key probe = new Key();
+
+    // Counters
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // Constructor for a cache holding at most maxSize lines.
+    public ProgramCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.programs = new LinkedHashMap<Key, Program>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Program> eldest) {
+                if (size() > ProgramCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled program for the line, or null if it is not cached.
+     */
+    public Program get(CharSequence line) {
+        Program program = programs.get(probe.set(line));
+        probe.set(null);
+        if (program == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return program;
+    }
+
+    /**
+     * Caches the compiled program for the line.
+     */
+    public void put(CharSequence line, Program program) {
+        if (maxSize > 0) {
+            programs.put(new Key().set(line.toString()), program);
+        }
+    }
+
+    /**
+     * Removes every line from the cache. The counters are kept.
+     */
+    public void clear() {
+        programs.clear();
+    }
+
+    /**
+     * Returns the number of lines in the cache.
+     */
+    public int size() {
+        return programs.size();
+    }
+
+    /**
+     * Returns the maximum number of lines the cache holds.
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of lookups that found a compiled line.
+     */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a compiled line.
+     */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of lines evicted to make room for others.
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Key holding a line as any CharSequence, compared by its characters.
+     * Its hash is the same as String.hashCode, computed once per line.
+     */
+    private static final class Key {
+        private CharSequence chars;
+        private int hash;
+
+        /**
+         * Points this key at a line and returns it.
+         */
+        Key set(CharSequence line) {
+            chars = line;
+            if (line instanceof String) {
+                hash = line.hashCode();
+            } else if (line != null) {
+                int h = 0;
+                for (int i = 0; i < line.length(); i++) {
+                    h = 31 * h + line.charAt(i);
+                }
+                hash = h;
+            }
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            if (hash != key.hash || chars.length() != key.chars.length()) {
+                return false;
+            }
+            for (int i = 0; i < chars.length(); i++) {
+                if (chars.charAt(i) != key.chars.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
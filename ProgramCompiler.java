@@ -0,0 +1,701 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for compiling a Program to JVM bytecode, in a hidden class of its own, for the lines
+ * SRPN runs so often that interpreting them costs more than compiling them.
+ *
+ * Lines made of operands, folded runs, the built-in operators and "=" are compiled; any other
+ * line gets CompiledProgram.INTERPRETED. The operands a line works on are held in locals of
+ * the generated method rather than on the stack: it reads those it needs from the stack,
+ * works everything out with the saturation of Token.saturateOperand inlined where an operand
+ * may be out of range, and only then pops what it used and pushes what it leaves. Whether the
+ * line can underflow or overflow the stack is known from its shape, so that is checked once,
+ * against the stack's size and limit, before anything is read.
+ *
+ * The class is written directly as a class file. It is version 49, so that the JVM works out
+ * the types at each branch itself and no StackMapTable has to be written. Hidden classes are
+ * unloaded once nothing refers to them, so a compiled line goes when its Program is evicted
+ * from the ProgramCache.
+ */
+
+public final class ProgramCompiler {
+
+    // Longest line tried, which keeps the constant pool and locals of the generated class in range
+    static final int MAX_INSTRUCTIONS = 1024;
+
+    // Longest generated method, so that every branch, all of which jump forwards, has a 16-bit offset
+    static final int MAX_CODE_LENGTH = Short.MAX_VALUE;
+
+    // Names of the classes the generated class uses, in the package of this one
+    private static final String STACK = internalName(OperandStack.class);
+    private static final String RESULT = internalName(EvalResult.class);
+    private static final String ARITHMETIC = internalName(Arithmetic.class);
+    private static final String INTERFACE = internalName(CompiledProgram.class);
+    private static final String CLASS_NAME = INTERFACE.substring(0, INTERFACE.lastIndexOf('/') + 1) + "CompiledLine";
+
+    // Local variables of the generated method
+    private static final int STACK_LOCAL = 1;
+    private static final int RESULT_LOCAL = 2;
+    private static final int SIZE_LOCAL = 3;
+    private static final int FIRST_VALUE_LOCAL = 4;
+
+    // Opcodes of the JVM instructions used
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int LCONST_0 = 0x09;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int POP2 = 0x58;
+    private static final int IADD = 0x60;
+    private static final int LADD = 0x61;
+    private static final int LSUB = 0x65;
+    private static final int LMUL = 0x69;
+    private static final int LDIV = 0x6d;
+    private static final int LREM = 0x71;
+    private static final int LCMP = 0x94;
+    private static final int IFEQ = 0x99;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFLE = 0x9e;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private ProgramCompiler() {
+    }
+
+    /**
+     * Compiles a line, returning CompiledProgram.INTERPRETED if it has anything that is not compiled,
+     * its code would be too long, or the JVM will not define the class written for it.
+     */
+    public static CompiledProgram compile(Program program) {
+        if (program.length() == 0 || program.length() > MAX_INSTRUCTIONS || !isCompilable(program)) {
+            return CompiledProgram.INTERPRETED;
+        }
+        byte[] classFile = new Writer(program).write();
+        if (classFile == null) {
+            return CompiledProgram.INTERPRETED;
+        }
+        try {
+            Class<?> compiled = LOOKUP.defineHiddenClass(classFile, true).lookupClass();
+            return (CompiledProgram) LOOKUP.in(compiled).findConstructor(compiled, MethodType.methodType(void.class)).invoke();
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable e) {
+            // The line still runs, interpreted, as it did before it was compiled
+            return CompiledProgram.INTERPRETED;
+        }
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    /**
+     * Checks that every instruction of the line is one that is compiled.
+     */
+    private static boolean isCompilable(Program program) {
+        for (int i = 0; i < program.length(); i++) {
+            int instruction = program.instruction(i);
+            switch (Program.kind(instruction)) {
+                case Program.PUSH:
+                    break;
+                case Program.FOLD:
+                    i += program.foldLength(i);
+                    break;
+                case Program.OPERATOR:
+                    int opcode = Program.opcode(instruction);
+                    if (opcode < OperatorRegistry.ADD || opcode > OperatorRegistry.POWER) {
+                        return false;
+                    }
+                    break;
+                case Program.COMMAND:
+                    if (Program.opcode(instruction) != OperatorRegistry.PRINT_TOP) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An operand of the line being compiled: a constant, or a local of the generated method.
+     * Operands read from the stack and typed operands may be out of range until they are
+     * saturated; the results of operators never are.
+     */
+    private static final class Value {
+        final boolean constant;
+        final long value;
+        final int local;
+        final boolean saturated;
+
+        Value(boolean constant, long value, int local, boolean saturated) {
+            this.constant = constant;
+            this.value = value;
+            this.local = local;
+            this.saturated = saturated;
+        }
+    }
+
+    /**
+     * Writes the class file for one line.
+     */
+    private static final class Writer {
+        private final Program program;
+        private final ConstantPool pool = new ConstantPool();
+        private final Code code = new Code();
+
+        // Operands the line has pushed and not yet used, and how far below its starting size it has reached
+        private final List<Value> values = new ArrayList<>();
+        private int floor;
+        private int nextLocal = FIRST_VALUE_LOCAL;
+
+        // Values printed by "=", in order
+        private final List<Value> printed = new ArrayList<>();
+
+        // Set if the line always reports an error, such as a divide by a constant 0, or its code
+        // would be longer than MAX_CODE_LENGTH, so it is never compiled
+        private boolean notCompiled;
+
+        Writer(Program program) {
+            this.program = program;
+        }
+
+        /**
+         * Returns the class file, or null if the line is always interpreted.
+         */
+        byte[] write() {
+            int thisClass = pool.classRef(CLASS_NAME);
+            int superClass = pool.classRef("java/lang/Object");
+            int interfaceClass = pool.classRef(INTERFACE);
+            byte[] constructor = constructor();
+            byte[] execute = execute();
+            if (notCompiled) {
+                return null;
+            }
+            int codeName = pool.utf8("Code");
+            int constructorName = pool.utf8("<init>");
+            int constructorType = pool.utf8("()V");
+            int executeName = pool.utf8("execute");
+            int executeType = pool.utf8("(L" + STACK + ";L" + RESULT + ";)Z");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49);
+                pool.writeTo(out);
+                out.writeShort(0x0031);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(interfaceClass);
+                out.writeShort(0);
+                out.writeShort(2);
+                writeMethod(out, constructorName, constructorType, codeName, constructor, 1, 1);
+                writeMethod(out, executeName, executeType, codeName, execute, 8, nextLocal);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+                byte[] body, int maxStack, int maxLocals) throws IOException {
+            out.writeShort(0x0001);
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + body.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        private byte[] constructor() {
+            Code init = new Code();
+            init.op(ALOAD_0);
+            init.op(INVOKESPECIAL);
+            init.u2(pool.methodRef("java/lang/Object", "<init>", "()V"));
+            init.op(RETURN);
+            return init.toByteArray();
+        }
+
+        /**
+         * Generates execute: the checks, then the line, then the changes to the stack and result.
+         */
+        private byte[] execute() {
+            int need = 0;
+            int peak = 0;
+            int depth = 0;
+            for (int i = 0; i < program.length(); i++) {
+                int instruction = program.instruction(i);
+                switch (Program.kind(instruction)) {
+                    case Program.PUSH:
+                        peak = Math.max(peak, ++depth);
+                        break;
+                    case Program.FOLD:
+                        peak = Math.max(peak, depth + program.foldPeak(i));
+                        depth += program.foldValueCount(i);
+                        i += program.foldLength(i);
+                        break;
+                    case Program.OPERATOR:
+                        need = Math.max(need, 2 - depth);
+                        depth--;
+                        break;
+                    default:
+                        need = Math.max(need, 1 - depth);
+                        break;
+                }
+            }
+
+            Label interpret = new Label();
+            // int size = stack.size(); if (size < need || size + peak > stack.limit()) return false;
+            code.op(ALOAD, STACK_LOCAL);
+            code.invoke(INVOKEVIRTUAL, pool.methodRef(STACK, "size", "()I"));
+            code.op(ISTORE, SIZE_LOCAL);
+            code.op(ILOAD, SIZE_LOCAL);
+            code.pushInt(need, pool);
+            code.jump(IF_ICMPLT, interpret);
+            code.op(ILOAD, SIZE_LOCAL);
+            code.pushInt(peak, pool);
+            code.op(IADD);
+            code.op(ALOAD, STACK_LOCAL);
+            code.invoke(INVOKEVIRTUAL, pool.methodRef(STACK, "limit", "()I"));
+            code.jump(IF_ICMPGT, interpret);
+
+            for (int i = 0; i < program.length() && !notCompiled; i++) {
+                int instruction = program.instruction(i);
+                switch (Program.kind(instruction)) {
+                    case Program.PUSH:
+                        values.add(new Value(true, program.constant(i), 0, false));
+                        break;
+                    case Program.FOLD:
+                        for (int j = 0; j < program.foldValueCount(i); j++) {
+                            values.add(new Value(true, program.foldValue(i, j), 0, false));
+                        }
+                        i += program.foldLength(i);
+                        break;
+                    case Program.OPERATOR:
+                        operator(Program.opcode(instruction), interpret);
+                        // Each operator adds the most code, so a line that is already too long stops here
+                        notCompiled |= code.length() > MAX_CODE_LENGTH;
+                        break;
+                    default:
+                        // "=" prints the top operand as it is, without saturating it
+                        Value top = pop();
+                        values.add(top);
+                        printed.add(top);
+                        break;
+                }
+            }
+
+            // Nothing has been changed up to here; now pop what was read and push what is left
+            int popMethod = pool.methodRef(STACK, "pop", "()J");
+            for (int i = 0; i < -floor; i++) {
+                code.op(ALOAD, STACK_LOCAL);
+                code.invoke(INVOKEVIRTUAL, popMethod);
+                code.op(POP2);
+            }
+            if (peak > floor + values.size()) {
+                code.op(ALOAD, STACK_LOCAL);
+                code.op(ILOAD, SIZE_LOCAL);
+                code.pushInt(peak, pool);
+                code.op(IADD);
+                code.invoke(INVOKEVIRTUAL, pool.methodRef(STACK, "reach", "(I)V"));
+            }
+            int pushMethod = pool.methodRef(STACK, "push", "(J)V");
+            for (Value value : values) {
+                code.op(ALOAD, STACK_LOCAL);
+                load(value);
+                code.invoke(INVOKEVIRTUAL, pushMethod);
+            }
+            int addValueMethod = pool.methodRef(RESULT, "addValue", "(J)V");
+            for (Value value : printed) {
+                code.op(ALOAD, RESULT_LOCAL);
+                load(value);
+                code.invoke(INVOKEVIRTUAL, addValueMethod);
+            }
+            code.op(ICONST_1);
+            code.op(IRETURN);
+
+            code.bind(interpret);
+            code.op(ICONST_0);
+            code.op(IRETURN);
+            if (code.length() > MAX_CODE_LENGTH) {
+                notCompiled = true;
+            }
+            return code.toByteArray();
+        }
+
+        /**
+         * Generates a built-in operator, jumping to interpret if it would report an error.
+         */
+        private void operator(int opcode, Label interpret) {
+            Value b = saturated(pop());
+            Value a = saturated(pop());
+
+            // Divide and modulo by zero and negative powers are left to the interpreter
+            if (b.constant && Arithmetic.isError(opcode, b.value)) {
+                notCompiled = true;
+                return;
+            }
+            if (!b.constant && (opcode == OperatorRegistry.DIVIDE || opcode == OperatorRegistry.MODULO
+                    || opcode == OperatorRegistry.POWER)) {
+                load(b);
+                code.op(LCONST_0);
+                code.op(LCMP);
+                code.jump(opcode == OperatorRegistry.POWER ? IFLT : IFEQ, interpret);
+            }
+
+            load(a);
+            load(b);
+            boolean inRange = false;
+            switch (opcode) {
+                case OperatorRegistry.ADD:
+                    code.op(LADD);
+                    break;
+                case OperatorRegistry.SUBTRACT:
+                    code.op(LSUB);
+                    break;
+                case OperatorRegistry.MULTIPLY:
+                    code.op(LMUL);
+                    break;
+                case OperatorRegistry.DIVIDE:
+                    code.op(LDIV);
+                    break;
+                case OperatorRegistry.MODULO:
+                    // A remainder is smaller than the divisor, so it is always in range
+                    code.op(LREM);
+                    inRange = true;
+                    break;
+                default:
+                    // Arithmetic.power saturates its own result
+                    code.invoke(INVOKESTATIC, pool.methodRef(ARITHMETIC, "power", "(JJ)J"));
+                    inRange = true;
+                    break;
+            }
+            int local = newLocal();
+            code.store(local);
+            if (!inRange) {
+                saturate(local, local);
+            }
+            values.add(new Value(false, 0, local, true));
+        }
+
+        /**
+         * Takes the top operand, reading it from the stack if the line has not pushed it.
+         */
+        private Value pop() {
+            if (!values.isEmpty()) {
+                return values.remove(values.size() - 1);
+            }
+            // stack.get(size + floor), one below the lowest operand read so far
+            floor--;
+            code.op(ALOAD, STACK_LOCAL);
+            code.op(ILOAD, SIZE_LOCAL);
+            code.pushInt(floor, pool);
+            code.op(IADD);
+            code.invoke(INVOKEVIRTUAL, pool.methodRef(STACK, "get", "(I)J"));
+            int local = newLocal();
+            code.store(local);
+            return new Value(false, 0, local, false);
+        }
+
+        /**
+         * Returns the operand saturated, as SRPN saturates operands as it uses them.
+         */
+        private Value saturated(Value value) {
+            if (value.saturated) {
+                return value;
+            }
+            if (value.constant) {
+                return new Value(true, Token.saturateOperand(value.value), 0, true);
+            }
+            // Into a local of its own, as the unsaturated operand may also have been printed by "="
+            int local = newLocal();
+            saturate(value.local, local);
+            return new Value(false, 0, local, true);
+        }
+
+        /**
+         * Generates Token.saturateOperand of one local into another, which may be the same one.
+         */
+        private void saturate(int from, int to) {
+            Label notBelow = new Label();
+            Label notAbove = new Label();
+            Label done = new Label();
+            code.load(from);
+            code.ldc2(pool.longConstant(Constants.MIN_OPERAND_VALUE));
+            code.op(LCMP);
+            code.jump(IFGE, notBelow);
+            code.ldc2(pool.longConstant(Constants.MIN_OPERAND_VALUE));
+            code.store(to);
+            code.jump(GOTO, done);
+            code.bind(notBelow);
+            code.load(from);
+            code.ldc2(pool.longConstant(Constants.MAX_OPERAND_VALUE));
+            code.op(LCMP);
+            code.jump(IFLE, notAbove);
+            code.ldc2(pool.longConstant(Constants.MAX_OPERAND_VALUE));
+            code.store(to);
+            code.jump(GOTO, done);
+            code.bind(notAbove);
+            if (from != to) {
+                code.load(from);
+                code.store(to);
+            }
+            code.bind(done);
+        }
+
+        private void load(Value value) {
+            if (value.constant) {
+                code.ldc2(pool.longConstant(value.value));
+            } else {
+                code.load(value.local);
+            }
+        }
+
+        private int newLocal() {
+            int local = nextLocal;
+            nextLocal += 2;
+            return local;
+        }
+    }
+
+    /**
+     * A place in the code that jumps are made to, which may be bound after the jumps.
+     */
+    private static final class Label {
+        int position = -1;
+        final List<Integer> jumps = new ArrayList<>();
+    }
+
+    /**
+     * The bytes of a method's code.
+     */
+    private static final class Code {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void op(int opcode, int local) {
+            if (local > 255) {
+                u1(WIDE);
+                u1(opcode);
+                u2(local);
+            } else {
+                u1(opcode);
+                u1(local);
+            }
+        }
+
+        void load(int local) {
+            op(LLOAD, local);
+        }
+
+        void store(int local) {
+            op(LSTORE, local);
+        }
+
+        void invoke(int opcode, int method) {
+            u1(opcode);
+            u2(method);
+        }
+
+        void ldc2(int constant) {
+            u1(LDC2_W);
+            u2(constant);
+        }
+
+        void pushInt(int value, ConstantPool pool) {
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(pool.intConstant(value));
+            }
+        }
+
+        void jump(int opcode, Label target) {
+            target.jumps.add(length);
+            u1(opcode);
+            u2(0);
+        }
+
+        void bind(Label label) {
+            label.position = length;
+            for (int jump : label.jumps) {
+                int offset = label.position - jump;
+                bytes[jump + 1] = (byte) (offset >> 8);
+                bytes[jump + 2] = (byte) offset;
+            }
+        }
+
+        void u1(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        int length() {
+            return length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    /**
+     * The constant pool of the class being written, with each entry added once.
+     */
+    private static final class ConstantPool {
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int LONG = 5;
+        private static final int CLASS = 7;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String text) {
+            Integer index = entries.get("U" + text);
+            if (index != null) {
+                return index;
+            }
+            return add("U" + text, 1, () -> {
+                out.writeByte(UTF8);
+                out.writeUTF(text);
+            });
+        }
+
+        int classRef(String name) {
+            Integer index = entries.get("C" + name);
+            if (index != null) {
+                return index;
+            }
+            int nameIndex = utf8(name);
+            return add("C" + name, 1, () -> {
+                out.writeByte(CLASS);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int methodRef(String owner, String name, String type) {
+            String key = "M" + owner + "." + name + type;
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            int nameAndType = add("N" + name + type, 1, () -> {
+                out.writeByte(NAME_AND_TYPE);
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+            });
+            return add(key, 1, () -> {
+                out.writeByte(METHOD_REF);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int intConstant(int value) {
+            Integer index = entries.get("I" + value);
+            if (index != null) {
+                return index;
+            }
+            return add("I" + value, 1, () -> {
+                out.writeByte(INTEGER);
+                out.writeInt(value);
+            });
+        }
+
+        int longConstant(long value) {
+            Integer index = entries.get("J" + value);
+            if (index != null) {
+                return index;
+            }
+            // A long takes two entries of the pool
+            return add("J" + value, 2, () -> {
+                out.writeByte(LONG);
+                out.writeLong(value);
+            });
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            target.write(bytes.toByteArray());
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+
+        private int add(String key, int slots, Entry entry) {
+            try {
+                entry.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int index = count;
+            count += slots;
+            entries.put(key, index);
+            return index;
+        }
+    }
+}
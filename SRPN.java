@@ -1,41 +1,488 @@
-import java.util.Stack;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 
 /**
  * Class for the SRPN calculator.
+ *
+ * evaluate() is the embeddable entry point: it evaluates a line into an EvalResult,
+ * holding the printed values, error codes and top of the stack, and never prints or exits.
+ * processCommand() is the console adapter over it, writing each result to the output sink.
+ * processStream() evaluates input of any length in fixed-size chunks as it is read.
  */
 
 public class SRPN {
 
-    // Index used to go through the array of random numbers
-    private static int currentRandomIndex = 0;
+    // Line that backs out the line before it, when the session keeps an undo history
+    public static final String UNDO_COMMAND = "undo";
 
-    // Declare the Stack for operands
-    private Stack<String> stack;
+    // Index used to go through the array of random numbers, separately for each session
+    private int currentRandomIndex = 0;
+
+    // Set once a modulo by zero has ended the session, as it would crash the original calculator
+    private boolean terminated;
+
+    // Declare the Stack for operands, which becomes a PersistentOperandStack once the session is snapshotted
+    private OperandStack stack;
+
+    // Tokens of the line being processed, filled in by the normaliser
+    private final TokenBuffer tokens;
+    private final InputNormaliser normaliser;
+
+    // Evaluates tokens as soon as they are read, for processStream
+    private final TokenSink streamSink = new StreamSink();
+
+    // Compiled lines, so that repeated lines are not cleaned again
+    private final ProgramCache programCache;
+
+    // Where processCommand writes results and errors
+    private final OutputSink out;
+
+    // Result reused by evaluate(line), and the result the line being evaluated is written to
+    private final EvalResult lineResult = new EvalResult();
+    private EvalResult result = lineResult;
+
+    // Whether compiled lines have their constant runs folded
+    private boolean constantFolding = true;
+
+    // Executions of a cached line after which it is compiled to bytecode, or 0 to always interpret
+    private int compileThreshold;
+
+    // The operators and commands recognised, and how they are applied
+    private final OperatorRegistry operators;
+
+    // Runtime metrics, or null when they are not collected
+    private Metrics metrics;
+
+    // Profile of the lines evaluated, or null when they are not profiled
+    private Profiler profiler;
+
+    // File checkpointed to every checkpointInterval lines, or null when that is off
+    private Path checkpointFile;
+    private long checkpointInterval;
+    private long linesSinceCheckpoint;
+
+    // Words defined by ": name body ;" lines, or null when words are off
+    private WordDictionary words;
+
+    // Whether "#" comments may span lines, kept for forks
+    private boolean multiLineComments;
+
+    // Set while the result of the line being evaluated is going to be written to out, so "d" may write to it first
+    private boolean writingToOutput;
+
+    // Snapshots taken before each of the last few lines, in a ring starting at the oldest
+    private Snapshot[] undoHistory = new Snapshot[0];
+    private int undoStart;
+    private int undoCount;
 
     // Constructor to instantiate the Stack.
     public SRPN() {
-        stack = new Stack<>();
+        this(Constants.PROGRAM_CACHE_SIZE);
+    }
+
+    // Constructor to instantiate the Stack, keeping at most programCacheSize compiled lines.
+    public SRPN(int programCacheSize) {
+        this(programCacheSize, new BufferedOutputSink(System.out));
+    }
+
+    // Constructor to instantiate the Stack, writing results and errors to the given sink.
+    public SRPN(int programCacheSize, OutputSink out) {
+        this(programCacheSize, out, OperatorRegistry.standard());
+    }
+
+    // Constructor to instantiate the Stack, with the operators and commands of the given registry.
+    public SRPN(int programCacheSize, OutputSink out, OperatorRegistry operators) {
+        this.out = out;
+        this.operators = operators;
+        stack = new ArrayOperandStack();
+        tokens = new TokenBuffer();
+        normaliser = new InputNormaliser(tokens, operators);
+        programCache = new ProgramCache(programCacheSize);
+    }
+
+    // Constructor for a fork of the given session, sharing its operators, with a copy of its words and a cache of its own.
+    private SRPN(SRPN parent, OutputSink out) {
+        this.out = out;
+        this.operators = parent.operators;
+        stack = new PersistentOperandStack(parent.stack.limit());
+        tokens = new TokenBuffer();
+        normaliser = new InputNormaliser(tokens, operators);
+        programCache = new ProgramCache(parent.programCache.maxSize());
+        constantFolding = parent.constantFolding;
+        compileThreshold = parent.compileThreshold;
+        words = parent.words == null ? null : new WordDictionary(parent.words);
+        normaliser.setWords(words);
+        setMultiLineComments(parent.multiLineComments);
+        undoHistory = new Snapshot[parent.undoHistory.length];
+        restore(parent.snapshot());
+    }
+
+    /**
+     * The state of a session between lines: its stack, the position of "r", whether a
+     * comment is open and whether it has ended. A snapshot never changes, and taking one
+     * or restoring one takes the same time and memory whatever the depth of the stack.
+     */
+    public static final class Snapshot {
+        private final PersistentOperandStack.Node stack;
+        private final int randomIndex;
+        private final boolean inComment;
+        private final boolean terminated;
+
+        private Snapshot(PersistentOperandStack.Node stack, int randomIndex, boolean inComment, boolean terminated) {
+            this.stack = stack;
+            this.randomIndex = randomIndex;
+            this.inComment = inComment;
+            this.terminated = terminated;
+        }
+
+        /**
+         * Returns the number of operands on the stack.
+         */
+        public int size() {
+            return stack == null ? 0 : stack.size;
+        }
     }
 
     /**
-     * Execute a command based on the provided string.
+     * Checks if a modulo by zero has ended the session.
+     * Once it has, no further input is processed and the caller is expected to stop,
+     * as Main does by exiting with status 1.
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Empties the stack, ready for a new calculation.
+     */
+    public void clearStack() {
+        stack.clear();
+    }
+
+    /**
+     * Returns the session to its starting state: an empty stack, the first random number,
+     * no open comment, not terminated and nothing to undo. Compiled lines and metrics are kept.
+     */
+    public void reset() {
+        stack.clear();
+        currentRandomIndex = 0;
+        terminated = false;
+        normaliser.reset();
+        setUndoHistory(undoHistory.length);
+    }
+
+    /**
+     * Writes a checkpoint of the session to the file: the stack, the position of "r", whether
+     * a comment is open and, with words on, the words defined. Its size and the time it takes
+     * do not depend on how many lines the session has evaluated, only on what it holds.
+     */
+    public void checkpoint(Path file) throws IOException {
+        long[] values = new long[stack.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = stack.get(i);
+        }
+        byte[] encodedWords = words == null ? null : words.encode();
+        new Checkpoint(values, currentRandomIndex, normaliser.isInComment(), encodedWords).write(file, stack.limit());
+        linesSinceCheckpoint = 0;
+    }
+
+    /**
+     * Replaces the state of the session with the one checkpointed to the file, which is checked
+     * first, so that the session carries on as if it had evaluated the lines before the checkpoint.
+     * A checkpoint with words turns words on and replaces those defined; one without them leaves
+     * words on or off as they are, with none defined.
+     */
+    public void resume(Path file) throws IOException {
+        Checkpoint checkpoint = Checkpoint.read(file, stack.limit());
+        // The words are checked before anything changes, so a bad checkpoint leaves the session as it was
+        WordDictionary resumedWords = null;
+        if (checkpoint.words() != null) {
+            resumedWords = new WordDictionary(operators);
+            try {
+                resumedWords.decode(checkpoint.words());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Checkpoint has invalid words: " + file + ": " + e.getMessage(), e);
+            }
+        }
+        reset();
+        if (resumedWords != null) {
+            setWords(true);
+            words.decode(checkpoint.words());
+            programCache.clear();
+        } else if (words != null) {
+            words.clear();
+            programCache.clear();
+        }
+        for (long value : checkpoint.values()) {
+            stack.push(value);
+        }
+        currentRandomIndex = checkpoint.randomIndex();
+        normaliser.setInComment(checkpoint.inComment());
+    }
+
+    /**
+     * Checkpoints the session to the file after every interval lines, or stops if file is null.
+     * A checkpoint that cannot be written throws an UncheckedIOException from the line that made it due.
+     */
+    public void setCheckpointing(Path file, long interval) {
+        if (file != null && interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        checkpointFile = file;
+        checkpointInterval = interval;
+        linesSinceCheckpoint = 0;
+    }
+
+    /**
+     * Captures the state of the session. The first snapshot of a session moves its stack to a
+     * PersistentOperandStack, once; from then on snapshots take constant time and memory.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(persistentStack().snapshot(), currentRandomIndex, normaliser.isInComment(), terminated);
+    }
+
+    /**
+     * Puts the session back in a state captured by snapshot, from this session or any other
+     * with the same stack limit. Compiled lines, metrics and the undo history are kept.
+     */
+    public void restore(Snapshot snapshot) {
+        if (snapshot.size() > stack.limit()) {
+            throw new IllegalArgumentException("Snapshot holds " + snapshot.size()
+                    + " operands, more than the stack limit of " + stack.limit());
+        }
+        persistentStack().restore(snapshot.stack);
+        currentRandomIndex = snapshot.randomIndex;
+        normaliser.reset();
+        normaliser.setInComment(snapshot.inComment);
+        terminated = snapshot.terminated;
+    }
+
+    /**
+     * Returns a new session in the same state as this one, writing to the same sink, which
+     * carries on independently of it. A fork starts with a copy of the words of this session
+     * and a cache of compiled lines of its own, so that words defined and settings changed in
+     * either are not seen by the other. Forks share the operators, so a session and its forks
+     * must be used from one thread at a time.
+     */
+    public SRPN fork() {
+        return fork(out);
+    }
+
+    /**
+     * Returns a fork of this session writing its results and errors to the given sink.
+     */
+    public SRPN fork(OutputSink out) {
+        return new SRPN(this, out);
+    }
+
+    /**
+     * Keeps a snapshot before each of the last lines lines evaluated by evaluate or processCommand,
+     * so that they can be backed out with undo; 0 stops keeping them and forgets those kept.
+     */
+    public void setUndoHistory(int lines) {
+        if (lines < 0) {
+            throw new IllegalArgumentException("Undo history must not be negative: " + lines);
+        }
+        undoHistory = new Snapshot[lines];
+        undoStart = 0;
+        undoCount = 0;
+    }
+
+    /**
+     * Backs out the last line evaluated, putting the session back as it was before it.
+     * Returns false if there is no line left in the undo history to back out.
+     */
+    public boolean undo() {
+        if (undoCount == 0) {
+            return false;
+        }
+        int newest = (undoStart + --undoCount) % undoHistory.length;
+        Snapshot previous = undoHistory[newest];
+        undoHistory[newest] = null;
+        restore(previous);
+        return true;
+    }
+
+    /**
+     * Notes the state of the session before a line, in place of the oldest snapshot if the history is full.
+     */
+    private void rememberForUndo() {
+        if (undoHistory.length == 0) {
+            return;
+        }
+        Snapshot snapshot = snapshot();
+        if (undoCount == undoHistory.length) {
+            undoHistory[undoStart] = snapshot;
+            undoStart = (undoStart + 1) % undoHistory.length;
+        } else {
+            undoHistory[(undoStart + undoCount++) % undoHistory.length] = snapshot;
+        }
+    }
+
+    /**
+     * Switches to deep-stack mode, holding up to limit operands in an OffHeapOperandStack instead
+     * of the usual STACK_LIMIT, and moving over those already on the stack. Snapshots, forks and
+     * undo still move the stack to a PersistentOperandStack, on the heap, when first used.
+     */
+    public void setDeepStack(int limit) {
+        if (limit < stack.size()) {
+            throw new IllegalArgumentException("Stack limit " + limit + " is below the " + stack.size()
+                    + " operands already on the stack");
+        }
+        OffHeapOperandStack deep = new OffHeapOperandStack(limit);
+        for (int i = 0; i < stack.size(); i++) {
+            deep.push(stack.get(i));
+        }
+        deep.reach(stack.highWaterMark());
+        stack = deep;
+    }
+
+    /**
+     * Returns the stack as a PersistentOperandStack, moving the operands over the first time.
+     */
+    private PersistentOperandStack persistentStack() {
+        if (!(stack instanceof PersistentOperandStack)) {
+            PersistentOperandStack persistent = new PersistentOperandStack(stack.limit());
+            for (int i = 0; i < stack.size(); i++) {
+                persistent.push(stack.get(i));
+            }
+            persistent.reach(stack.highWaterMark());
+            stack = persistent;
+        }
+        return (PersistentOperandStack) stack;
+    }
+
+    /**
+     * Returns the sink results and errors are written to.
+     */
+    public OutputSink getOutput() {
+        return out;
+    }
+
+    /**
+     * Returns the cache of compiled lines, for its counters.
+     */
+    public ProgramCache getProgramCache() {
+        return programCache;
+    }
+
+    /**
+     * Returns the runtime metrics, or null when they are not collected.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets where runtime metrics are collected, or stops collecting them if metrics is null.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Profiles the lines evaluated by evaluate and processCommand with the given profiler, or stops
+     * profiling if it is null; processStream does not profile its lines. So that each token can be
+     * counted and timed, profiled lines are interpreted one token at a time, without their folded
+     * runs or compiled form, which gives the same results a little more slowly.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Returns the profiler of the session, or null when its lines are not profiled.
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Enables or disables constant folding of compiled lines, which is enabled by default.
+     * Lines already compiled are forgotten, so that every line is compiled the same way.
+     */
+    public void setConstantFolding(boolean enabled) {
+        if (enabled != constantFolding) {
+            constantFolding = enabled;
+            programCache.clear();
+        }
+    }
+
+    /**
+     * Compiles a cached line to JVM bytecode with ProgramCompiler once it has been executed the
+     * given number of times, or always interprets lines if it is 0, which is the default.
+     */
+    public void setCompileThreshold(int executions) {
+        if (executions < 0) {
+            throw new IllegalArgumentException("Compile threshold must not be negative: " + executions);
+        }
+        compileThreshold = executions;
+    }
+
+    /**
+     * Enables or disables user-defined words, which are off by default. While they are on, a line
+     * such as ": name body ;" read by evaluate or processCommand defines the word name, and name
+     * is read as body wherever it is a token of its own; processStream reads words, but does not
+     * take definitions. Turning words off or on again forgets the words defined.
+     */
+    public void setWords(boolean enabled) {
+        if (enabled == (words != null)) {
+            return;
+        }
+        words = enabled ? new WordDictionary(operators) : null;
+        normaliser.setWords(words);
+        programCache.clear();
+    }
+
+    /**
+     * Returns the words defined in this session, or null when words are off.
+     */
+    public WordDictionary getWords() {
+        return words;
+    }
+
+    /**
+     * Enables or disables "#" comments that span several lines of input.
+     */
+    public void setMultiLineComments(boolean enabled) {
+        multiLineComments = enabled;
+        normaliser.setMultiLineComments(enabled);
+    }
+
+    /**
+     * Execute a command based on the provided opcode.
      * This method handles commands such as 'r' (random number), 'd' (print stack), and '=' (print top result).
      */
-    private void executeCommand(String command) {
+    private void executeCommand(int command) {
         switch (command) {
-            case "r":
+            case OperatorRegistry.RANDOM:
                 // Handle the "r" command
-                Commands.handleRandom(stack, currentRandomIndex);
+                if (!Commands.handleRandom(stack, currentRandomIndex, result)) {
+                    countError(Errors.STACK_OVERFLOW);
+                }
                 // Update the random index after the command is processed
                 currentRandomIndex = (currentRandomIndex + 1) % Constants.RANDOM_NUMBERS.length;
                 break;
-            case "d":
-                // Handle the "d" command
-                Commands.printStack(stack);
+            case OperatorRegistry.PRINT_STACK:
+                // Handle the "d" command, writing a deep stack straight to the output rather than into the result
+                if (writingToOutput && stack instanceof OffHeapOperandStack && !stack.isEmpty()) {
+                    result.renderTo(out);
+                    result.clear();
+                    Commands.printStack((OffHeapOperandStack) stack, out);
+                } else {
+                    Commands.printStack(stack, result);
+                }
                 break;
-            case "=":
+            case OperatorRegistry.PRINT_TOP:
                 // Handle the "=" command
-                Commands.printResult(stack);
+                if (!Commands.printResult(stack, result)) {
+                    countError(Errors.EMPTY_STACK);
+                }
                 break;
             default:
                 break;
@@ -43,63 +490,157 @@ public class SRPN {
     }
 
     /**
-     * Take two operands from the stack and perform the operation with the provided operator.
+     * Take two operands from the stack, or one for a unary operator, and perform the operation with the provided operator.
+     * The saturated result is pushed back onto the stack.
      */
-    private String performOperation(String operator) {
+    private void performOperation(int operator) {
         // Check if there are enough operands in the stack
-        if (stack.size() < Constants.MIN_STACK_SIZE) {
-            Errors.displayStackUnderflowError();
-            return null;
+        int arity = operators.arity(operator);
+        if (stack.size() < arity) {
+            error(Errors.STACK_UNDERFLOW);
+            return;
+        }
+
+        long result;
+        if (arity == 1) {
+            // Registered unary operators never report errors
+            result = Token.saturateOperand(operators.apply(operator, Token.saturateOperand(stack.pop())));
+        } else {
+            // Pop the two operands from the stack and ensure they are saturated
+            long b = Token.saturateOperand(stack.pop());
+            long a = Token.saturateOperand(stack.pop());
+
+            // Apply the operation and ensure the result is saturated
+            result = Token.saturateOperand(applyOperation(a, b, operator));
+            if (terminated) {
+                return;
+            }
         }
-    
-        // Pop the two operands from the stack and ensure they are saturated
-        long b = Token.saturateOperand(Long.parseLong(stack.pop()));
-        long a = Token.saturateOperand(Long.parseLong(stack.pop()));
 
-        // Apply the operation
-        long result = applyOperation(a, b, operator);
-        
-        // Return the result and ensure it is saturated
-        return Long.toString(Token.saturateOperand(result));
+        // Check if stack is full
+        if (stack.isFull()) {
+            error(Errors.STACK_OVERFLOW);
+        }
+        else {
+        // Is stack is not full, push
+            stack.push(result);
+        }
     }
 
     /**
      * Apply the specified arithmetic operation to two operands.
      */
-    private long applyOperation(long a, long b, String operator) {
-        switch (operator) {
-            case "+":
-                return a + b;
-            case "-":
-                return a - b;
-            case "*":
-                return a * b;
-            case "/":
-                if (b == 0) {
-                    Errors.displayDivideByZeroError();
+    private long applyOperation(long a, long b, int operator) {
+        // Registered operators are applied through the registry, and never report errors
+        if (operator >= OperatorRegistry.FIRST_EXTENSION) {
+            return operators.apply(operator, a, b);
+        }
+        if (Arithmetic.isError(operator, b)) {
+            switch (operator) {
+                case OperatorRegistry.DIVIDE:
+                    error(Errors.DIVIDE_BY_ZERO);
                     // Push the first operand back in case of division by zero
-                    stack.push(String.valueOf(a));
-                    return Long.parseLong(String.valueOf(b));
-                }
-                return a / b;
-            case "%":
-                if (b == 0) {
-                    Errors.displayModuloByZeroError();
-                    System.exit(1);
-                }
-                return a % b;
-            case "^":
-                if (b < 0) {
-                    Errors.displayNegativePowerError();
-                    stack.push(String.valueOf(a));
-                    return Long.parseLong(String.valueOf(b));
-                }
-                return (long) Math.pow(a, b);
-            default:
-                return 0;
+                    stack.push(a);
+                    return b;
+                case OperatorRegistry.MODULO:
+                    error(Errors.MODULO_BY_ZERO);
+                    terminated = true;
+                    return 0;
+                case OperatorRegistry.POWER:
+                    error(Errors.NEGATIVE_POWER);
+                    stack.push(a);
+                    return b;
+                default:
+                    return 0;
+            }
         }
+        return Arithmetic.apply(operator, a, b);
     }
-    
+
+    /**
+     * Counts an operator or command about to be evaluated.
+     */
+    private void countOpcode(int opcode) {
+        if (metrics != null) {
+            metrics.countOpcode(opcode);
+        }
+    }
+
+    /**
+     * Counts every operator and command of a line that has been executed to the end, folded runs included.
+     */
+    private void countOpcodes(Program program) {
+        if (metrics != null) {
+            metrics.countLine(program);
+        }
+    }
+
+    /**
+     * Counts the operators and commands of a line up to and including the instruction it ended at.
+     */
+    private void countOpcodes(Program program, int last) {
+        for (int i = 0; i <= last; i++) {
+            int kind = Program.kind(program.instruction(i));
+            if (kind == Program.OPERATOR || kind == Program.COMMAND) {
+                countOpcode(Program.opcode(program.instruction(i)));
+            }
+        }
+    }
+
+    /**
+     * Reports an error, given its code from Errors, and counts it.
+     */
+    private void error(int error) {
+        result.addError(error);
+        countError(error);
+    }
+
+    /**
+     * Counts an error that has just been reported, given its code from Errors.
+     */
+    private void countError(int error) {
+        if (metrics != null) {
+            metrics.countError(error);
+        }
+        if (profiler != null) {
+            profiler.error(error);
+        }
+    }
+
+    /**
+     * Starts the metrics of a line.
+     */
+    private void startLine() {
+        if (metrics != null) {
+            metrics.startLine();
+        }
+    }
+
+    /**
+     * Ends the metrics of the line just evaluated.
+     */
+    private void endLine() {
+        if (metrics != null) {
+            metrics.endLine(stack);
+        }
+    }
+
+    /**
+     * Counts a line just evaluated, writing a checkpoint if one is due.
+     * A session ended by a modulo by zero is not checkpointed, so the last checkpoint is kept.
+     */
+    private void checkpointIfDue() {
+        if (checkpointFile == null || terminated || ++linesSinceCheckpoint < checkpointInterval) {
+            return;
+        }
+        try {
+            checkpoint(checkpointFile);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Parses the given console input string by cleaning and preprocessing it.
      * 
@@ -121,73 +662,38 @@ public class SRPN {
      * and commands are executed as they are encountered.
      */
     public Long evaluateExpression(String[] tokens) {
+        result = lineResult;
+        result.clear();
+        startLine();
+        try {
+            return evaluateTokens(tokens);
+        }
+        finally {
+            endLine();
+            result.finish(stack, terminated);
+            result.renderTo(out);
+        }
+    }
+
+    /**
+     * Evaluates the tokens for evaluateExpression.
+     */
+    private Long evaluateTokens(String[] tokens) {
         for (String token : tokens) {
             // If the token contains multiple expressions (e.g., "-4 1 +"), split it into subTokens for individual processing
             if (token.contains(" ")) {
                 String[] subTokens = token.split(" ");
                 for (String subToken : subTokens) {
-                    // If the subToken is an operand, push it onto the stack
-                    if (Token.isOperand(subToken)) {
-                        // Check if stack is full
-                        if (stack.size() >= Constants.STACK_LIMIT) {
-                            Errors.displayStackOverflowError();
-                        }
-                        else {
-                        // Is stack is not full, push
-                            stack.push(subToken);
-                        }
-                    }
-                    // If the subToken is an operator, perform the arithmetic operation
-                    else if (Token.isOperator(subToken)) {
-                        String result = performOperation(subToken);
-                        // Check if result is not null
-                        if (result != null){
-                            // Check if stack is full
-                            if (stack.size() >= Constants.STACK_LIMIT) {
-                                Errors.displayStackOverflowError();
-                            }
-                            else {
-                            // Is stack is not full, push
-                                stack.push(result);
-                            }
-                        }
-                    }
-                    // If the subToken is a command, execute it
-                    else if (Token.isCommand(subToken)) {
-                        executeCommand(subToken);
+                    evaluateToken(subToken);
+                    if (terminated) {
+                        return null;
                     }
                 }
             } else {
                 // If the token is just a single element (operand, operator, command), handle it normally
-                // If the token is an operand, push it onto the stack
-                if (Token.isOperand(token)) {
-                    // Check if stack is full
-                    if (stack.size() >= Constants.STACK_LIMIT) {
-                        Errors.displayStackOverflowError();
-                    }
-                    else {
-                    // Is stack is not full, push
-                        stack.push(token);
-                    }
-                } 
-                // If the token is an operator, perform the arithmetic operation
-                else if (Token.isOperator(token)) {
-                    String result = performOperation(token);
-                    // Check if result is not null
-                    if (result != null){
-                        // Check if stack is full
-                        if (stack.size() >= Constants.STACK_LIMIT) {
-                            Errors.displayStackOverflowError();
-                        }
-                        else {
-                        // Is stack is not full, push
-                            stack.push(result);
-                        }
-                    }
-                } 
-                // If the token is a command, execute it
-                else if (Token.isCommand(token)) {
-                    executeCommand(token);
+                evaluateToken(token);
+                if (terminated) {
+                    return null;
                 }
             }
         }
@@ -196,32 +702,459 @@ public class SRPN {
         if (stack.isEmpty()) {
             return null;
         }
-        return Long.parseLong(stack.peek());
+        return stack.peek();
+    }
+
+    /**
+     * Evaluates a single operand, operator or command.
+     * Anything else is ignored, as it has already been reported while the input was cleaned.
+     */
+    private void evaluateToken(String token) {
+        int type = Lexer.classify(token);
+        if (type == Lexer.OPERAND) {
+            evaluateToken(type, Token.parseOperand(token), OperatorRegistry.NONE);
+        } else if (type == Lexer.OPERATOR || type == Lexer.COMMAND) {
+            evaluateToken(type, 0, operators.opcodeOf(token.charAt(0)));
+        }
+    }
+
+    /**
+     * Evaluates a token that has already been classified.
+     * The value is only used for operands and the opcode only for operators and commands.
+     */
+    private void evaluateToken(int type, long value, int opcode) {
+        if (type == Lexer.OPERATOR || type == Lexer.COMMAND) {
+            countOpcode(opcode);
+        }
+        applyToken(type, value, opcode);
+    }
+
+    /**
+     * Evaluates a token as evaluateToken does, without counting it in the metrics.
+     */
+    private void applyToken(int type, long value, int opcode) {
+        switch (type) {
+            // If the token is an operand, push it onto the stack
+            case Lexer.OPERAND:
+                // Check if stack is full
+                if (stack.isFull()) {
+                    error(Errors.STACK_OVERFLOW);
+                }
+                else {
+                // Is stack is not full, push
+                    stack.push(value);
+                }
+                break;
+            // If the token is an operator, perform the arithmetic operation
+            case Lexer.OPERATOR:
+                performOperation(opcode);
+                break;
+            // If the token is a command, execute it
+            case Lexer.COMMAND:
+                executeCommand(opcode);
+                break;
+            default:
+                break;
+        }
     }
 
     /**
-     * Processes the console input by parsing it and forwarding the tokens for evaluation.
+     * Executes a compiled line.
+     * Unrecognised characters are reported before anything on the line is evaluated.
+     * Its operators and commands are counted in the metrics all at once from the tally the
+     * program keeps, rather than one at a time, unless a modulo by zero ends the line early.
+     */
+    private void execute(Program program) {
+        for (int i = 0; i < program.unrecognisedCount(); i++) {
+            result.addInvalidOperator(program.unrecognised(i));
+            countError(Errors.INVALID_OPERATOR);
+        }
+        if (compileThreshold > 0 && executeCompiled(program)) {
+            return;
+        }
+
+        for (int i = 0; i < program.length(); i++) {
+            int instruction = program.instruction(i);
+            int kind = Program.kind(instruction);
+            if (kind == Program.FOLD) {
+                i += executeFold(program, i);
+                continue;
+            }
+            applyToken(kind, kind == Program.PUSH ? program.constant(i) : 0, Program.opcode(instruction));
+            if (terminated) {
+                countOpcodes(program, i);
+                return;
+            }
+        }
+        countOpcodes(program);
+    }
+
+    /**
+     * Compiles and executes a line as execute(compile(line)) does, telling the profiler about
+     * its tokens and errors and, if it is timed, how long it took.
+     */
+    private void executeProfiled(CharSequence line) {
+        boolean timing = profiler.startLine(line);
+        long start = timing ? System.nanoTime() : 0;
+        Program program = compile(line);
+        long compiled = timing ? System.nanoTime() : 0;
+
+        for (int i = 0; i < program.unrecognisedCount(); i++) {
+            profiler.startToken(Profiler.UNRECOGNISED);
+            result.addInvalidOperator(program.unrecognised(i));
+            countError(Errors.INVALID_OPERATOR);
+            profiler.endToken(0);
+        }
+        // Folded runs are followed by the instructions they stand for, which are executed instead
+        boolean timingTokens = profiler.isTimingTokens();
+        for (int i = 0; i < program.length() && !terminated; i++) {
+            int instruction = program.instruction(i);
+            int kind = Program.kind(instruction);
+            if (kind == Program.FOLD) {
+                continue;
+            }
+            int opcode = Program.opcode(instruction);
+            profiler.startToken(kind == Program.PUSH ? Profiler.OPERAND : operators.symbol(opcode));
+            long tokenStart = timingTokens ? System.nanoTime() : 0;
+            evaluateToken(kind, kind == Program.PUSH ? program.constant(i) : 0, opcode);
+            profiler.endToken(timingTokens ? System.nanoTime() - tokenStart : 0);
+        }
+
+        if (timing) {
+            profiler.phase(Profiler.CLEAN, compiled - start);
+            profiler.phase(Profiler.EVALUATE, System.nanoTime() - compiled);
+        }
+        profiler.endLine();
+    }
+
+    /**
+     * Executes the compiled form of a line, compiling it once it has been executed often enough.
+     * Returns false if the line is still to be interpreted, having changed nothing.
+     */
+    private boolean executeCompiled(Program program) {
+        CompiledProgram compiled = program.compiled();
+        if (compiled == null) {
+            if (program.countExecution() < compileThreshold) {
+                return false;
+            }
+            compiled = ProgramCompiler.compile(program);
+            program.setCompiled(compiled);
+        }
+        if (!compiled.execute(stack, result)) {
+            return false;
+        }
+
+        // The operators and commands of the line still count as evaluated, those of folded runs included
+        countOpcodes(program);
+        return true;
+    }
+
+    /**
+     * Executes the FOLD instruction at the given index, pushing the values of its run if the stack has room for it.
+     * Returns the number of instructions to skip: the whole run, or none if it has to execute as written.
+     */
+    private int executeFold(Program program, int index) {
+        // Without room, the run executes as written so that it reports the overflow where it happens
+        int peak = program.foldPeak(index);
+        if (stack.size() + peak > stack.limit()) {
+            return 0;
+        }
+        stack.reach(stack.size() + peak);
+        for (int j = 0; j < program.foldValueCount(index); j++) {
+            stack.push(program.foldValue(index, j));
+        }
+
+        // The operators of the run still count as evaluated, with the rest of the line
+        return program.foldLength(index);
+    }
+
+    /**
+     * Evaluates a line of console input into the session's own result, which is
+     * overwritten by the next call. Nothing is printed.
+     */
+    public EvalResult evaluate(CharSequence line) {
+        return evaluate(line, lineResult);
+    }
+
+    /**
+     * Evaluates a line of console input into the given result, after clearing it.
+     * Nothing is printed and the JVM is never exited: a modulo by zero is reported as
+     * the MODULO_BY_ZERO error and marks the result, and every later one, as terminated.
+     */
+    public EvalResult evaluate(CharSequence line, EvalResult result) {
+        this.result = result;
+        result.clear();
+        // Do nothing if the input string is empty or the session has ended
+        if (line.length() != 0 && !terminated && isDefinition(line)) {
+            define(line);
+        } else if (line.length() != 0 && !terminated && undoHistory.length > 0 && isUndo(line)) {
+            // With an undo history, a line reading "undo" backs out the line before it
+            if (!undo()) {
+                error(Errors.NOTHING_TO_UNDO);
+            }
+        } else if (line.length() != 0 && !terminated) {
+            rememberForUndo();
+            startLine();
+            if (profiler != null) {
+                executeProfiled(line);
+            } else {
+                execute(compile(line));
+            }
+            endLine();
+            checkpointIfDue();
+        }
+        result.finish(stack, terminated);
+        return result;
+    }
+
+    /**
+     * Checks if a line is a word definition, which it cannot be with words off or inside a comment.
+     */
+    private boolean isDefinition(CharSequence line) {
+        return words != null && !normaliser.isInComment() && WordDictionary.isDefinition(line);
+    }
+
+    /**
+     * Checks if a line reads "undo", read as the normaliser reads lines: ignoring case and
+     * whitespace either side, and never inside a comment left open by an earlier line.
+     */
+    private boolean isUndo(CharSequence line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start != UNDO_COMMAND.length() || normaliser.isInComment()) {
+            return false;
+        }
+        for (int i = 0; i < UNDO_COMMAND.length(); i++) {
+            if (Character.toLowerCase(line.charAt(start + i)) != UNDO_COMMAND.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Defines the word of a definition line, reporting INVALID_DEFINITION if it is not well-formed.
+     * Cached lines may have read the name as other tokens, or as an older definition, so they are forgotten.
+     * The stack is untouched, so the line is not kept for undo.
+     */
+    private void define(CharSequence line) {
+        if (words.define(line)) {
+            programCache.clear();
+        } else {
+            error(Errors.INVALID_DEFINITION);
+        }
+    }
+
+    /**
+     * Compiles a line, or finds it in the cache.
+     */
+    private Program compile(CharSequence line) {
+        // A line read inside a multi-line comment compiles differently, so it is not cached
+        boolean cacheable = !normaliser.isInComment();
+        Program program = cacheable ? programCache.get(line) : null;
+
+        if (program == null) {
+            // Clean the string from the console into tokens and compile them
+            tokens.clear();
+            normaliser.normalise(line);
+            program = Program.of(tokens);
+            if (constantFolding) {
+                program = ConstantFolder.fold(program);
+            }
+
+            // A line that leaves a comment open changes how the next line is read, so it is not cached either
+            if (cacheable && !normaliser.isInComment()) {
+                programCache.put(line, program);
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Processes the console input by evaluating it and writing its results and errors to the output sink.
      * Returns the final result of the evaluated expression.
      */
-    public Long processCommand(String consoleInput) {
-        // Do nothing if the input string is empty
-        if (consoleInput.equals("")) {
+    public Long processCommand(CharSequence consoleInput) {
+        // Do nothing if the input string is empty or the session has ended
+        if (consoleInput.length() == 0 || terminated) {
             return null;
         }
-        // Parse the string from the console into tokens
-        String[] tokens = parseConsoleInput(consoleInput);
+        writingToOutput = true;
+        EvalResult result;
+        try {
+            result = evaluate(consoleInput);
+        }
+        finally {
+            writingToOutput = false;
+        }
+        if (profiler != null && profiler.isTimingLine()) {
+            long start = System.nanoTime();
+            result.renderTo(out);
+            profiler.phase(Profiler.OUTPUT, System.nanoTime() - start);
+        } else {
+            result.renderTo(out);
+        }
 
-        // Evaluate the expression
-        return evaluateExpression(tokens);
+        // Return the result if the stack is not empty
+        return result.hasTop() ? result.top() : null;
     }
-}
 
+    /**
+     * Evaluates everything the reader gives, a chunk at a time, writing results and errors
+     * to the output sink as it goes. Lines end as for BufferedReader.readLine, and tokens
+     * may span chunks, so a line can be longer than fits in memory.
+     *
+     * Tokens are evaluated as soon as they are complete instead of once their line has been
+     * read, so the output of a line with an unrecognised character is not always the same as
+     * processCommand's: processCommand reports every unrecognised character of a line before
+     * evaluating any of its tokens, while here each is reported where it occurs, between the
+     * results and errors of the tokens either side of it. For "1 = x 2 =", processCommand prints
+     * the error for "x" and then 1 and 2, and processStream prints 1, the error and then 2.
+     * Otherwise the output is the same as processCommand's for each line. Reading stops once a
+     * modulo by zero ends the session.
+     *
+     * Memory is bounded by the chunk size and the stack limit, whatever the length of a line.
+     * The line rules make some of a line wait: the operators of a merged token such as "2+3*4"
+     * until the token ends, the text after a "#" until it is closed or its line ends, and
+     * whitespace until it is clear the line goes on. Operators are kept as runs, and binary
+     * operators past what the stack can use only counted, as InputNormaliser.setHoldLimits
+     * explains; anything else that grows past STREAM_HOLD_LIMIT, such as a long unclosed "#",
+     * is reported as LINE_TOO_LONG and the rest of its line is skipped.
+     */
+    public void processStream(Reader reader) throws IOException {
+        char[] chunk = new char[Constants.STREAM_CHUNK_SIZE];
+        boolean lineStarted = false;
+        boolean afterCarriageReturn = false;
+        boolean skippingLine = false;
+
+        normaliser.setSink(streamSink);
+        normaliser.setHoldLimits(stack.limit(), Constants.STREAM_HOLD_LIMIT);
+        result = lineResult;
+        result.clear();
+        writingToOutput = true;
+        try {
+            int length;
+            while (!terminated && (length = reader.read(chunk)) != -1) {
+                for (int i = 0; i < length && !terminated; i++) {
+                    char c = chunk[i];
+                    // "\r\n" is one line ending, even when it is split between chunks
+                    if (c == '\n' && afterCarriageReturn) {
+                        afterCarriageReturn = false;
+                        continue;
+                    }
+                    afterCarriageReturn = c == '\r';
+                    if (c == '\n' || c == '\r') {
+                        if (lineStarted) {
+                            endStreamLine();
+                            lineStarted = false;
+                        }
+                        skippingLine = false;
+                        continue;
+                    }
+                    if (!lineStarted) {
+                        lineStarted = true;
+                        startLine();
+                    }
+                    if (skippingLine) {
+                        continue;
+                    }
+                    try {
+                        normaliser.accept(c);
+                    }
+                    catch (IllegalStateException e) {
+                        // The line holds back more than it may, so what is held is dropped along with the rest of the line
+                        normaliser.reset();
+                        error(Errors.LINE_TOO_LONG);
+                        skippingLine = true;
+                    }
+                }
+                // Pass on the output of each chunk, so that it does not build up either
+                result.renderTo(out);
+                result.clear();
+            }
+            if (lineStarted && !terminated) {
+                endStreamLine();
+            }
+        }
+        finally {
+            writingToOutput = false;
+            normaliser.setSink(tokens);
+            normaliser.setHoldLimits(0, 0);
+            result.renderTo(out);
+            result.clear();
+        }
+    }
 
+    /**
+     * Evaluates everything read from a channel, decoded with the given charset, as processStream(Reader) does.
+     */
+    public void processStream(ReadableByteChannel channel, Charset charset) throws IOException {
+        processStream(Channels.newReader(channel, charset.newDecoder(), Constants.STREAM_CHUNK_SIZE));
+    }
 
+    /**
+     * Ends a line read by processStream.
+     */
+    private void endStreamLine() {
+        normaliser.endLine();
+        endLine();
+        checkpointIfDue();
+        result.renderTo(out);
+        result.clear();
+    }
 
+    /**
+     * Sink that evaluates tokens as the normaliser reads them, for processStream.
+     * Tokens read after a modulo by zero has ended the session are ignored. The output is
+     * passed on whenever it reaches a chunk's worth of events, since the end of a single
+     * merged token can send any number of operators.
+     */
+    private final class StreamSink implements TokenSink {
 
-    
+        @Override
+        public void operand(long value) {
+            if (!terminated) {
+                evaluateToken(Lexer.OPERAND, value, OperatorRegistry.NONE);
+                passOnIfFull();
+            }
+        }
 
+        @Override
+        public void operator(int opcode) {
+            if (!terminated) {
+                evaluateToken(Lexer.OPERATOR, 0, opcode);
+                passOnIfFull();
+            }
+        }
 
+        @Override
+        public void command(int opcode) {
+            if (!terminated) {
+                evaluateToken(Lexer.COMMAND, 0, opcode);
+                passOnIfFull();
+            }
+        }
 
+        @Override
+        public void unrecognised(char c) {
+            if (!terminated) {
+                result.addInvalidOperator(c);
+                countError(Errors.INVALID_OPERATOR);
+                passOnIfFull();
+            }
+        }
 
+        private void passOnIfFull() {
+            if (result.eventCount() >= Constants.STREAM_CHUNK_SIZE) {
+                result.renderTo(out);
+                result.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Class for serving SRPN sessions over TCP on the loopback interface.
+ * Every connection gets its own SRPN instance, with its own stack and random index,
+ * and is handled on its own virtual thread where the JVM has them.
+ *
+ * The protocol is line based: the client sends a line of input and the server answers
+ * with the calculator's output for that line followed by an empty line. A modulo by zero
+ * ends the session, so the server sends the output and closes the connection.
+ */
+
+public class SRPNServer {
+
+    // Default port and limit on concurrent sessions
+    public static final int DEFAULT_PORT = 7878;
+    public static final int DEFAULT_MAX_SESSIONS = 10_000;
+
+    // Sent instead of a session when the limit has been reached
+    static final String BUSY_MESSAGE = "Server busy.";
+
+    // Pending connections the operating system queues for us
+    private static final int BACKLOG = 4096;
+
+    // Bytes of output held per session before it is written to the socket
+    private static final int SESSION_BUFFER_BYTES = 8192;
+
+    private final int port;
+    private final Semaphore sessions;
+    private final int maxSessions;
+    private ServerSocket serverSocket;
+
+    // Constructor for a server on the given loopback port, with at most maxSessions open at once.
+    public SRPNServer(int port, int maxSessions) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("Session limit must be positive: " + maxSessions);
+        }
+        this.port = port;
+        this.maxSessions = maxSessions;
+        this.sessions = new Semaphore(maxSessions);
+    }
+
+    /**
+     * Binds to the loopback interface, so the server cannot be reached from other machines.
+     * Returns the port bound, which is chosen by the system if the port given was 0.
+     */
+    public int bind() throws IOException {
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed, starting a session for each.
+     */
+    public void serve() throws IOException {
+        if (serverSocket == null) {
+            bind();
+        }
+        ExecutorService executor = newSessionExecutor();
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        break;
+                    }
+                    throw e;
+                }
+                socket.setTcpNoDelay(true);
+
+                // Turn the connection away if the limit has been reached
+                if (!sessions.tryAcquire()) {
+                    reject(socket);
+                    continue;
+                }
+                executor.execute(() -> {
+                    try {
+                        runSession(socket);
+                    } finally {
+                        sessions.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting connections. Sessions already open carry on until their clients leave.
+     */
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Returns the number of sessions open at the moment.
+     */
+    public int openSessions() {
+        return maxSessions - sessions.availablePermits();
+    }
+
+    /**
+     * Runs one session: reads lines from the socket and answers each one.
+     */
+    private static void runSession(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            OutputSink out = new BufferedOutputSink(s.getOutputStream(), FlushPolicy.END, SESSION_BUFFER_BYTES, StandardCharsets.UTF_8);
+            SRPN srpn = new SRPN(Constants.PROGRAM_CACHE_SIZE, out);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                srpn.processCommand(line);
+                if (srpn.isTerminated()) {
+                    break;
+                }
+                // An empty line marks the end of the answer
+                out.printLine("");
+                out.flush();
+            }
+            out.flush();
+        } catch (IOException | UncheckedIOException e) {
+            // The client has gone away; nothing else depends on this session
+        }
+    }
+
+    /**
+     * Tells a client that the server is full and closes its connection.
+     */
+    private static void reject(Socket socket) {
+        try (Socket s = socket) {
+            OutputSink out = new BufferedOutputSink(s.getOutputStream(), FlushPolicy.LINE, SESSION_BUFFER_BYTES, StandardCharsets.UTF_8);
+            out.printLine(BUSY_MESSAGE);
+        } catch (IOException | UncheckedIOException e) {
+            // The client has gone away already
+        }
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread,
+     * or on a cached pool of platform threads on JVMs without virtual threads.
+     */
+    public static ExecutorService newSessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(null, runnable, "srpn-session", 256 * 1024);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
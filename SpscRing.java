@@ -0,0 +1,199 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * Elements sit in a power-of-two array of slots indexed by two ever-increasing counters:
+ * the producer alone moves the tail and the consumer alone moves the head, each publishing
+ * its counter with a release store, so neither ever takes a lock. Each side keeps a cached
+ * copy of the other's counter and only reads the real one when the cache says the queue is
+ * full or empty. put and take wait while the queue is full or empty, which is what holds a
+ * fast producer back to the pace of a slow consumer; they spin briefly, then yield, then park
+ * for short spells, so a waiting thread gives up the CPU on machines with few cores.
+ *
+ * The consumer's fields and the producer's are kept on cache lines of their own, so that
+ * each thread's writes do not keep taking the line the other is reading from. The JVM may
+ * lay out the fields of a class in any order, but it puts those of a superclass before those
+ * of its subclasses, so as in JCTools each group of fields, and the padding between them,
+ * is declared in a class of its own in a chain of superclasses: the slots, padding, the
+ * consumer's fields, padding, the producer's fields and padding again. The padding is 128
+ * bytes, as processors that prefetch cache lines in pairs can still share a 64-byte line's
+ * neighbour.
+ */
+
+public final class SpscRing<E> extends SpscRingProducerPad<E> {
+
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(SpscRingConsumerFields.class, "head", long.class);
+            TAIL = lookup.findVarHandle(SpscRingProducerFields.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Attempts to spin, then to yield, before a waiting thread parks
+    private static final int SPINS = 64;
+    private static final int YIELDS = 16;
+
+    // Longest a waiting thread parks before it looks again
+    private static final long PARK_NANOS = 50_000;
+
+    // Constructor for a queue holding at most capacity elements, rounded up to a power of two.
+    public SpscRing(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Adds an element if there is room, from the producer thread. Returns false if the queue is full.
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long t = tail;
+        if (t - cachedHead == slots.length) {
+            cachedHead = (long) HEAD.getAcquire(this);
+            if (t - cachedHead == slots.length) {
+                return false;
+            }
+        }
+        SLOTS.setRelease(slots, (int) t & mask, element);
+        TAIL.setRelease(this, t + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest element, from the consumer thread. Returns null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head;
+        if (h == cachedTail) {
+            cachedTail = (long) TAIL.getAcquire(this);
+            if (h == cachedTail) {
+                return null;
+            }
+        }
+        int slot = (int) h & mask;
+        E element = (E) SLOTS.getAcquire(slots, slot);
+        SLOTS.setRelease(slots, slot, null);
+        HEAD.setRelease(this, h + 1);
+        return element;
+    }
+
+    /**
+     * Adds an element, waiting while the queue is full.
+     */
+    public void put(E element) {
+        for (int attempt = 0; !offer(element); attempt++) {
+            backOff(attempt);
+        }
+    }
+
+    /**
+     * Removes the oldest element, waiting while the queue is empty.
+     */
+    public E take() {
+        E element;
+        for (int attempt = 0; (element = poll()) == null; attempt++) {
+            backOff(attempt);
+        }
+        return element;
+    }
+
+    /**
+     * Waits a little before the next attempt, longer the more attempts have failed.
+     */
+    private static void backOff(int attempt) {
+        if (attempt < SPINS) {
+            Thread.onSpinWait();
+        } else if (attempt < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+}
+
+/**
+ * The slots of an SpscRing, which neither thread writes once it is made, other than their contents.
+ */
+abstract class SpscRingSlots<E> {
+    final Object[] slots;
+    final int mask;
+
+    // Constructor for slots holding at most capacity elements, rounded up to a power of two.
+    SpscRingSlots(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        slots = new Object[size];
+        mask = size - 1;
+    }
+}
+
+/**
+ * Padding between the slots of an SpscRing and the consumer's fields.
+ */
+abstract class SpscRingSlotsPad<E> extends SpscRingSlots<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07, p08, p09, p0a, p0b, p0c, p0d, p0e, p0f;
+
+    SpscRingSlotsPad(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * The consumer's fields of an SpscRing: its counter and its cached copy of the tail.
+ */
+abstract class SpscRingConsumerFields<E> extends SpscRingSlotsPad<E> {
+    volatile long head;
+    long cachedTail;
+
+    SpscRingConsumerFields(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * Padding between the consumer's fields of an SpscRing and the producer's.
+ */
+abstract class SpscRingConsumerPad<E> extends SpscRingConsumerFields<E> {
+    long p10, p11, p12, p13, p14, p15, p16, p17, p18, p19, p1a, p1b, p1c, p1d, p1e, p1f;
+
+    SpscRingConsumerPad(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * The producer's fields of an SpscRing: its counter and its cached copy of the head.
+ */
+abstract class SpscRingProducerFields<E> extends SpscRingConsumerPad<E> {
+    volatile long tail;
+    long cachedHead;
+
+    SpscRingProducerFields(int capacity) {
+        super(capacity);
+    }
+}
+
+/**
+ * Padding between the producer's fields of an SpscRing and whatever follows it in memory.
+ */
+abstract class SpscRingProducerPad<E> extends SpscRingProducerFields<E> {
+    long p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p2a, p2b, p2c, p2d, p2e, p2f;
+
+    SpscRingProducerPad(int capacity) {
+        super(capacity);
+    }
+}
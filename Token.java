@@ -1,6 +1,3 @@
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Helper class with methods to deal with tokens.
  * Includes methods to identify operands, operators, commands, and
@@ -14,30 +11,56 @@ public class Token {
     * This is a number, including negative numbers.
     */
    public static boolean isOperand(String op) {
-      // Expression to check if the string is a number or a negative number
-      Pattern pattern = Pattern.compile("^[\\d]|^-[\\d]");
-      Matcher matcher = pattern.matcher(op);
-      return matcher.find();
+      return Lexer.classify(op) == Lexer.OPERAND;
    }
 
    /**
     * Checks if the provided string represents a valid operator.
     */
    public static boolean isOperator(String op) {
-      // Expression to check if the string is an operator
-      Pattern pattern = Pattern.compile("^[+\\-*/^%]$");
-      Matcher matcher = pattern.matcher(op);
-      return matcher.matches();
+      return Lexer.classify(op) == Lexer.OPERATOR;
    }
 
    /**
     * Checks if the provided string represents a valid command.
     */
    public static boolean isCommand(String op) {
-      // Expression to check if the string is a command
-      Pattern pattern = Pattern.compile("^[dr=]$");
-      Matcher matcher = pattern.matcher(op);
-      return matcher.find();
+      return Lexer.classify(op) == Lexer.COMMAND;
+   }
+
+   /**
+    * Reads the value of an operand token.
+    * Only the optional leading "-" and the digits after it are read, and values that
+    * do not fit in a long are clamped to the nearest bound.
+    */
+   public static long parseOperand(CharSequence op) {
+      return parseOperand(op, 0, op.length());
+   }
+
+   /**
+    * Reads the value of an operand token held in the given range of the input.
+    */
+   public static long parseOperand(CharSequence input, int start, int end) {
+      boolean negative = start < end && input.charAt(start) == '-';
+      long value = 0;
+
+      // Accumulate the value as a negative number so that Long.MIN_VALUE can be reached
+      for (int i = negative ? start + 1 : start; i < end; i++) {
+         int digit = Character.digit(input.charAt(i), 10);
+         if (digit < 0) {
+            break;
+         }
+         if (value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit) {
+            value = Long.MIN_VALUE;
+         } else {
+            value = value * 10 - digit;
+         }
+      }
+
+      if (negative) {
+         return value;
+      }
+      return value == Long.MIN_VALUE ? Long.MAX_VALUE : -value;
    }
 
    /**
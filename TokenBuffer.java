@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * Class for holding the tokens of a line until the whole line has been cleaned.
+ * SRPN reports unrecognised characters before it evaluates anything on the line,
+ * so they are kept apart from the tokens. Storage is reused from line to line.
+ */
+
+public class TokenBuffer implements TokenSink {
+
+    // Tokens: their Lexer type, operand value and OperatorRegistry opcode
+    private int[] types = new int[16];
+    private long[] values = new long[16];
+    private int[] opcodes = new int[16];
+    private int size;
+
+    // Unrecognised characters, in the order they were read
+    private char[] unrecognised = new char[16];
+    private int unrecognisedCount;
+
+    /**
+     * Removes all tokens and unrecognised characters.
+     */
+    public void clear() {
+        size = 0;
+        unrecognisedCount = 0;
+    }
+
+    @Override
+    public void operand(long value) {
+        add(Lexer.OPERAND, value, OperatorRegistry.NONE);
+    }
+
+    @Override
+    public void operator(int opcode) {
+        add(Lexer.OPERATOR, 0, opcode);
+    }
+
+    @Override
+    public void command(int opcode) {
+        add(Lexer.COMMAND, 0, opcode);
+    }
+
+    @Override
+    public void unrecognised(char c) {
+        if (unrecognisedCount == unrecognised.length) {
+            unrecognised = Arrays.copyOf(unrecognised, unrecognisedCount * 2);
+        }
+        unrecognised[unrecognisedCount++] = c;
+    }
+
+    /**
+     * Returns the number of tokens.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the Lexer type of the token at the given index.
+     */
+    public int type(int index) {
+        return types[index];
+    }
+
+    /**
+     * Returns the value of the operand at the given index.
+     */
+    public long value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns the opcode of the operator or command at the given index.
+     */
+    public int opcode(int index) {
+        return opcodes[index];
+    }
+
+    /**
+     * Returns the number of unrecognised characters.
+     */
+    public int unrecognisedCount() {
+        return unrecognisedCount;
+    }
+
+    /**
+     * Returns the unrecognised character at the given index.
+     */
+    public char unrecognised(int index) {
+        return unrecognised[index];
+    }
+
+    /**
+     * Appends a token, growing the storage if needed.
+     */
+    private void add(int type, long value, int opcode) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+        }
+        types[size] = type;
+        values[size] = value;
+        opcodes[size] = opcode;
+        size++;
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Interface for receiving the tokens produced while console input is cleaned.
+ * Tokens arrive in the order in which SRPN evaluates them.
+ */
+
+public interface TokenSink {
+
+    /**
+     * Receives an operand and its value.
+     */
+    void operand(long value);
+
+    /**
+     * Receives an operator, identified by its opcode from OperatorRegistry.
+     */
+    void operator(int opcode);
+
+    /**
+     * Receives a command, identified by its opcode from OperatorRegistry.
+     */
+    void command(int opcode);
+
+    /**
+     * Receives a character that is not part of any operand, operator or command.
+     */
+    void unrecognised(char c);
+}
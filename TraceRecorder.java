@@ -0,0 +1,102 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Output sink that records every input line of a session, with when it arrived and a
+ * digest of the output it produced, to a compact binary trace that TraceReplayer can
+ * feed back through the calculator. Output is passed on to the sink it wraps.
+ *
+ * The trace starts with MAGIC and the wall-clock time it was started at, in milliseconds.
+ * Each line follows as: the microseconds since the previous line (or since the start) as a
+ * varint, the length of the line in UTF-8 as a varint, the line's bytes, then the number of
+ * output bytes the line produced as a varint and their CRC-32 as an int, both as worked out
+ * by DigestOutputSink.
+ */
+
+public class TraceRecorder extends DigestOutputSink implements Closeable {
+
+    // First bytes of every trace, the last one being the version of the format
+    static final byte[] MAGIC = {'S', 'R', 'P', 'N', 'T', 'R', 'C', 1};
+
+    // Bytes buffered before they are written to the file
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream trace;
+
+    // The line being recorded, and when the previous one arrived
+    private byte[] line;
+    private long lineMicros;
+    private long previousMicros;
+    private long lines;
+
+    // Constructor for a recorder writing a new trace to the given file, passing output on to out.
+    public TraceRecorder(Path file, OutputSink out) throws IOException {
+        super(out);
+        this.trace = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+        trace.write(MAGIC);
+        trace.writeLong(System.currentTimeMillis());
+        previousMicros = System.nanoTime() / 1000;
+    }
+
+    /**
+     * Starts recording a line that is about to be evaluated.
+     */
+    public void startLine(CharSequence text) {
+        line = text.toString().getBytes(StandardCharsets.UTF_8);
+        lineMicros = System.nanoTime() / 1000;
+        reset();
+    }
+
+    /**
+     * Writes the line started last to the trace, with the digest of the output it produced.
+     */
+    public void endLine() {
+        if (line == null) {
+            return;
+        }
+        try {
+            writeVarint(trace, lineMicros - previousMicros);
+            writeVarint(trace, line.length);
+            trace.write(line);
+            writeVarint(trace, bytes());
+            trace.writeInt(crc());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        previousMicros = lineMicros;
+        line = null;
+        lines++;
+    }
+
+    /**
+     * Returns the number of lines recorded so far.
+     */
+    public long lines() {
+        return lines;
+    }
+
+    /**
+     * Writes out what is left of the trace and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        trace.close();
+    }
+
+    /**
+     * Writes a non-negative value seven bits at a time, lowest first, with the top bit set on all but the last byte.
+     */
+    static void writeVarint(DataOutputStream stream, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            stream.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.writeByte((int) value);
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Class for feeding a trace written by TraceRecorder back through the calculator, to
+ * reproduce the load a session was under. Lines are replayed at the pace they were
+ * recorded at, at a fixed rate, or as fast as they can be evaluated.
+ *
+ * Each line is timed from when it was due rather than from when it was started, so a line
+ * held up behind a slow one counts the wait, as it would have in the recorded session.
+ * The output of each line is digested and compared with the recorded digest, so a change
+ * in behaviour shows up as divergent lines.
+ */
+
+public class TraceReplayer {
+
+    /**
+     * How fast lines are fed in.
+     */
+    public enum Pace {
+        // With the gaps between lines they were recorded with
+        ORIGINAL,
+        // At a fixed number of lines per second
+        FIXED,
+        // Each line as soon as the one before has been evaluated
+        MAX
+    }
+
+    // Bytes read from the trace at a time
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Divergent lines whose line numbers are kept for the report
+    private static final int DIVERGENCES_KEPT = 10;
+
+    /**
+     * Outcome of a replay.
+     */
+    public static final class Report {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long lines;
+        private long nanos;
+        private long divergent;
+        private long[] divergentLines = new long[0];
+
+        public long lines() {
+            return lines;
+        }
+
+        public double seconds() {
+            return nanos / 1e9;
+        }
+
+        public double linesPerSecond() {
+            return lines / seconds();
+        }
+
+        /**
+         * Returns the latencies of the lines, timed from when each was due.
+         */
+        public LatencyHistogram latencies() {
+            return latencies;
+        }
+
+        /**
+         * Returns the number of lines whose output differed from the recorded output.
+         */
+        public long divergent() {
+            return divergent;
+        }
+
+        /**
+         * Returns the numbers, from 1, of the first few divergent lines.
+         */
+        public long[] divergentLines() {
+            return divergentLines.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(
+                    "%d lines in %.3f s: %.0f lines/sec%n", lines, seconds(), linesPerSecond()));
+            report.append(String.format("latency us: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                    latencies.percentile(50) / 1e3, latencies.percentile(90) / 1e3, latencies.percentile(99) / 1e3,
+                    latencies.percentile(99.9) / 1e3, latencies.max() / 1e3));
+            report.append(divergent).append(" lines diverged from the recorded output");
+            if (divergent > 0) {
+                report.append(", first at lines ").append(Arrays.toString(divergentLines));
+            }
+            return report.toString();
+        }
+    }
+
+    private final Path trace;
+
+    // Constructor for a replayer of the given trace.
+    public TraceReplayer(Path trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Replays the trace through an SRPN session created by the given factory, which must
+     * write to the sink it is given. linesPerSecond is only used by Pace.FIXED.
+     */
+    public Report replay(Function<OutputSink, SRPN> factory, Pace pace, double linesPerSecond) throws IOException {
+        if (pace == Pace.FIXED && !(linesPerSecond > 0)) {
+            throw new IllegalArgumentException("Replay rate must be positive: " + linesPerSecond);
+        }
+        DigestOutputSink output = new DigestOutputSink(null);
+        SRPN srpn = factory.apply(output);
+        Report report = new Report();
+        long fixedInterval = pace == Pace.FIXED ? (long) (1e9 / linesPerSecond) : 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(trace), BUFFER_SIZE))) {
+            byte[] magic = new byte[TraceRecorder.MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, TraceRecorder.MAGIC)) {
+                throw new IOException("Not a trace, or a trace of another version: " + trace);
+            }
+            in.readLong();
+
+            byte[] line = new byte[256];
+            long start = System.nanoTime();
+            long due = start;
+            long recordedMicros = 0;
+            while (!srpn.isTerminated()) {
+                // A trace cut short, by the recording process being killed, ends at its last whole line
+                long gap;
+                int length;
+                long recordedBytes;
+                int recordedCrc;
+                try {
+                    gap = readVarint(in);
+                    length = (int) readVarint(in);
+                    if (length > line.length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    in.readFully(line, 0, length);
+                    recordedBytes = readVarint(in);
+                    recordedCrc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                String text = new String(line, 0, length, StandardCharsets.UTF_8);
+
+                // Wait until the line is due, unless replaying flat out; the wait before the first line is skipped
+                recordedMicros += report.lines == 0 ? 0 : gap;
+                if (pace == Pace.ORIGINAL) {
+                    due = start + recordedMicros * 1000;
+                } else if (pace == Pace.FIXED) {
+                    due = start + report.lines * fixedInterval;
+                }
+                long now = System.nanoTime();
+                while (now < due) {
+                    LockSupport.parkNanos(due - now);
+                    now = System.nanoTime();
+                }
+                if (pace == Pace.MAX) {
+                    due = now;
+                }
+
+                output.reset();
+                srpn.processCommand(text);
+                report.latencies.record(System.nanoTime() - due);
+                report.lines++;
+                if (output.crc() != recordedCrc || output.bytes() != recordedBytes) {
+                    if (report.divergent < DIVERGENCES_KEPT) {
+                        report.divergentLines = Arrays.copyOf(report.divergentLines, report.divergentLines.length + 1);
+                        report.divergentLines[report.divergentLines.length - 1] = report.lines;
+                    }
+                    report.divergent++;
+                }
+            }
+            report.nanos = System.nanoTime() - start;
+        }
+        return report;
+    }
+
+    /**
+     * Reads a value written by TraceRecorder.writeVarint.
+     */
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in trace");
+    }
+}
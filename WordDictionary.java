@@ -0,0 +1,354 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class for the words of a session: names bound to sequences of tokens, defined with a
+ * Forth-style line such as ": norm 1000 % 2 * ;" and used by writing the name as a token
+ * of its own, as in "7 norm =".
+ *
+ * A body is cleaned once, when the word is defined, and kept as the tokens it produced; the
+ * InputNormaliser sends those tokens in place of the name wherever it reads it, so a line
+ * using a word compiles to the same Program as the line with the body written out, and once
+ * cached it runs as fast. A name is lower-case letters, read case-insensitively like the
+ * rest of the input, and is not one of the single-letter commands; a name takes precedence
+ * over reading the same letters as commands and unrecognised characters.
+ *
+ * Words are bound when they are defined: a body using another word takes that word's tokens
+ * as they are at that moment. Redefining a word changes what it means on later lines only,
+ * and leaves words defined with it earlier as they were. A word using its own name gets its
+ * previous definition, or unrecognised characters if it had none, so words never recurse.
+ * What nesting there is, of words used in bodies, is limited to MAX_DEPTH words deep and
+ * MAX_TOKENS tokens once everything is inlined, so that a few lines cannot define a word
+ * that doubles in size at every level until it fills memory.
+ *
+ * The words go into checkpoints as the tokens they stand for, so a resumed session reads
+ * them exactly as the session it was checkpointed from did, however they came to be defined.
+ */
+
+public class WordDictionary {
+
+    // Deepest words may be nested within the bodies of other words
+    public static final int MAX_DEPTH = 16;
+
+    // Most tokens a word may stand for, with every word in its body inlined
+    public static final int MAX_TOKENS = 1 << 16;
+
+    // Kinds of the tokens of a body, numbered like the Lexer types, and an unrecognised character
+    private static final int UNRECOGNISED = Lexer.UNKNOWN;
+
+    /**
+     * The tokens a word stands for, in the order they were read.
+     */
+    static final class Word implements TokenSink {
+        private int[] kinds = new int[8];
+        private long[] values = new long[8];
+        private int size;
+        private int depth = 1;
+
+        @Override
+        public void operand(long value) {
+            add(Lexer.OPERAND, value);
+        }
+
+        @Override
+        public void operator(int opcode) {
+            add(Lexer.OPERATOR, opcode);
+        }
+
+        @Override
+        public void command(int opcode) {
+            add(Lexer.COMMAND, opcode);
+        }
+
+        @Override
+        public void unrecognised(char c) {
+            add(UNRECOGNISED, c);
+        }
+
+        /**
+         * Sends the tokens of the word to the sink, as if its body had been read there.
+         */
+        void sendTo(TokenSink sink) {
+            for (int i = 0; i < size; i++) {
+                switch (kinds[i]) {
+                    case Lexer.OPERAND:
+                        sink.operand(values[i]);
+                        break;
+                    case Lexer.OPERATOR:
+                        sink.operator((int) values[i]);
+                        break;
+                    case Lexer.COMMAND:
+                        sink.command((int) values[i]);
+                        break;
+                    default:
+                        sink.unrecognised((char) values[i]);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Notes that another word has been inlined into this one.
+         */
+        void nest(Word word) {
+            depth = Math.max(depth, word.depth + 1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int depth() {
+            return depth;
+        }
+
+        private void add(int kind, long value) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            kinds[size] = kind;
+            values[size] = value;
+            size++;
+        }
+    }
+
+    private final OperatorRegistry operators;
+    private final Map<String, Word> words = new HashMap<>();
+
+    // Length of the longest name defined, which no run of letters longer than can be a name
+    private int longestName;
+
+    // Word being defined, which words read in its body are inlined into
+    private Word defining;
+
+    // Constructor for an empty dictionary of words using the operators and commands of the registry.
+    public WordDictionary(OperatorRegistry operators) {
+        this.operators = operators;
+    }
+
+    // Constructor for a copy of a dictionary, whose words are never changed once defined and so are shared.
+    WordDictionary(WordDictionary other) {
+        this.operators = other.operators;
+        words.putAll(other.words);
+        longestName = other.longestName;
+    }
+
+    /**
+     * Checks if a line is a definition: its first character, other than whitespace, is ":".
+     */
+    public static boolean isDefinition(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c > ' ') {
+                return c == ':';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Defines the word of a line such as ": name body ;", replacing any word of the same name.
+     * Returns false, defining nothing, if the line is not a well-formed definition, or its
+     * word would nest more than MAX_DEPTH words deep or stand for more than MAX_TOKENS tokens.
+     */
+    public boolean define(CharSequence line) {
+        String text = line.toString().trim().toLowerCase();
+        if (text.length() < 2 || text.charAt(0) != ':' || text.charAt(1) > ' ' || !text.endsWith(";")) {
+            return false;
+        }
+        // ": name ;" has an empty body, which makes the word do nothing
+        text = text.substring(1, text.length() - 1).trim();
+        int nameEnd = 0;
+        while (nameEnd < text.length() && text.charAt(nameEnd) > ' ') {
+            nameEnd++;
+        }
+        String name = text.substring(0, nameEnd);
+        if (!isName(name)) {
+            return false;
+        }
+
+        Word word = new Word();
+        InputNormaliser normaliser = new InputNormaliser(word, operators);
+        normaliser.setWords(this);
+        defining = word;
+        try {
+            normaliser.normalise(text.substring(nameEnd));
+        } catch (IllegalStateException e) {
+            return false;
+        } finally {
+            defining = null;
+        }
+        // A body of only literals inlines nothing, so its length is checked here as well
+        if (word.depth() > MAX_DEPTH || word.size() > MAX_TOKENS) {
+            return false;
+        }
+        words.put(name, word);
+        longestName = Math.max(longestName, name.length());
+        return true;
+    }
+
+    /**
+     * Returns the word with the given name, or null if there is none.
+     */
+    Word get(CharSequence name) {
+        return words.get(name.toString());
+    }
+
+    /**
+     * Sends the tokens of a word to the sink, checking the limits if a word is being defined.
+     */
+    void inline(Word word, TokenSink sink) {
+        if (defining != null) {
+            if (defining.size() + word.size() > MAX_TOKENS) {
+                throw new IllegalStateException("Word too long");
+            }
+            defining.nest(word);
+        }
+        word.sendTo(sink);
+    }
+
+    /**
+     * Returns the words encoded for a checkpoint, in order of name: a big-endian int for the number
+     * of words, then for each its name's length and ASCII characters, its depth, its number of
+     * tokens and its tokens, each a byte for its kind and a long for its value, which for an
+     * operator or command is its character rather than its opcode.
+     */
+    public byte[] encode() {
+        Map<String, Word> sorted = new TreeMap<>(words);
+        int size = Integer.BYTES;
+        for (Map.Entry<String, Word> entry : sorted.entrySet()) {
+            size += 3 * Integer.BYTES + entry.getKey().length() + entry.getValue().size * (1 + Long.BYTES);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(sorted.size());
+        for (Map.Entry<String, Word> entry : sorted.entrySet()) {
+            Word word = entry.getValue();
+            buffer.putInt(entry.getKey().length());
+            buffer.put(entry.getKey().getBytes(StandardCharsets.US_ASCII));
+            buffer.putInt(word.depth);
+            buffer.putInt(word.size);
+            for (int i = 0; i < word.size; i++) {
+                boolean opcode = word.kinds[i] == Lexer.OPERATOR || word.kinds[i] == Lexer.COMMAND;
+                buffer.put((byte) word.kinds[i]);
+                buffer.putLong(opcode ? operators.symbol((int) word.values[i]) : word.values[i]);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Replaces every word with those encoded by encode, as read back from a checkpoint.
+     * The words are checked first, and left as they were if they are not well-formed or
+     * use operators or commands this dictionary does not have, with an IllegalArgumentException.
+     */
+    public void decode(byte[] encoded) {
+        Map<String, Word> decoded = new HashMap<>();
+        int longest = 0;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            int count = buffer.getInt();
+            for (int w = 0; w < count; w++) {
+                int nameLength = buffer.getInt();
+                if (nameLength <= 0 || nameLength > buffer.remaining()) {
+                    throw new IllegalArgumentException("Word name of " + nameLength + " characters");
+                }
+                byte[] name = new byte[nameLength];
+                buffer.get(name);
+                String text = new String(name, StandardCharsets.US_ASCII);
+                if (!isName(text) || decoded.containsKey(text)) {
+                    throw new IllegalArgumentException("Invalid or repeated word name \"" + text + "\"");
+                }
+                Word word = new Word();
+                word.depth = buffer.getInt();
+                int size = buffer.getInt();
+                if (word.depth < 1 || word.depth > MAX_DEPTH || size < 0 || size > MAX_TOKENS) {
+                    throw new IllegalArgumentException("Word \"" + text + "\" is too deep or too long");
+                }
+                for (int i = 0; i < size; i++) {
+                    decodeToken(buffer.get(), buffer.getLong(), word);
+                }
+                decoded.put(text, word);
+                longest = Math.max(longest, nameLength);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException(buffer.remaining() + " bytes after the last word");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Words end part way through");
+        }
+        words.clear();
+        words.putAll(decoded);
+        longestName = longest;
+    }
+
+    /**
+     * Adds a token read by decode to a word, checking its kind and value.
+     */
+    private void decodeToken(int kind, long value, Word word) {
+        switch (kind) {
+            case Lexer.OPERAND:
+                word.operand(value);
+                return;
+            case Lexer.OPERATOR:
+            case Lexer.COMMAND:
+                int opcode = value > 0 && value < 128 ? operators.opcodeOf((char) value) : OperatorRegistry.NONE;
+                if (opcode == OperatorRegistry.NONE || operators.isCommand(opcode) != (kind == Lexer.COMMAND)) {
+                    throw new IllegalArgumentException("Unknown operator or command " + value);
+                }
+                word.add(kind, opcode);
+                return;
+            case UNRECOGNISED:
+                if (value < Character.MIN_VALUE || value > Character.MAX_VALUE) {
+                    throw new IllegalArgumentException("Invalid character " + value);
+                }
+                word.unrecognised((char) value);
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown token kind " + kind);
+        }
+    }
+
+    /**
+     * Returns the length of the longest name defined, or 0 if there are no words.
+     */
+    int longestName() {
+        return longestName;
+    }
+
+    /**
+     * Returns the number of words defined.
+     */
+    public int size() {
+        return words.size();
+    }
+
+    /**
+     * Removes every word.
+     */
+    public void clear() {
+        words.clear();
+        longestName = 0;
+    }
+
+    /**
+     * Checks if a name can be given to a word: lower-case ASCII letters, other than a single-letter command.
+     */
+    private boolean isName(String name) {
+        if (name.isEmpty() || (name.length() == 1 && operators.opcodeOf(name.charAt(0)) != OperatorRegistry.NONE)) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
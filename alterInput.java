@@ -8,10 +8,20 @@ import java.util.*;
 
 public class alterInput {
 
+    // Where errors are written when no output sink is given
+    private static final OutputSink CONSOLE = new BufferedOutputSink(System.out);
+
     /**
      * Method to alter the console input.
      */
     public static String alterConsoleInput(String input) {
+        return alterConsoleInput(input, CONSOLE);
+    }
+
+    /**
+     * Method to alter the console input, writing errors to the given output sink.
+     */
+    public static String alterConsoleInput(String input, OutputSink out) {
 
         // Handle null input
         if (input == null) {
@@ -30,7 +40,7 @@ public class alterInput {
         // Deal with merged characters
         // If it is empty, a command or a number by itself we don't need to unmerge
         if (!alteredInput.isEmpty() && !Token.isCommand(alteredInput) && !Token.isOperator(alteredInput)) {
-            alteredInput = unmergeInput(alteredInput);
+            alteredInput = unmergeInput(alteredInput, out);
         }
 
         return alteredInput;
@@ -54,7 +64,7 @@ public class alterInput {
      * Method to break down merged expressions into separate operands and operators.
      * It handles expressions like "2+2*3" or "4-3 4+4" within a single input line.
      */
-    private static String unmergeInput(String input) {
+    private static String unmergeInput(String input, OutputSink out) {
         // Initialize a StringBuilder to build the processed result
         StringBuilder result = new StringBuilder();
 
@@ -72,7 +82,7 @@ public class alterInput {
             } 
             // If it is an expression (e.g., 2+2*3), process it
             else {
-                result.append(processTokenForExpression(token, isExpressionStarted)).append(Constants.SPACE);
+                result.append(processTokenForExpression(token, isExpressionStarted, out)).append(Constants.SPACE);
                 isExpressionStarted = true;
             }
         }
@@ -92,7 +102,7 @@ public class alterInput {
     /**
      * Method to process a token that is an expression (e.g., "1+2").
      */
-    private static String processTokenForExpression(String token, boolean isExpressionStarted) {
+    private static String processTokenForExpression(String token, boolean isExpressionStarted, OutputSink out) {
 
         if (!isExpressionStarted && ! Token.isOperator(token)){
             // Explicitly set expression started to true if token is non-numeric
@@ -100,7 +110,7 @@ public class alterInput {
         }
 
         // If it is an expression, actual process it
-        String processedToken = isExpressionStarted ? processExpression(token) : token;
+        String processedToken = isExpressionStarted ? processExpression(token, out) : token;
 
         return processedToken;
     }
@@ -109,7 +119,7 @@ public class alterInput {
      * Processes an expression by separating numbers and operators/commands,
      * handling negative numbers, and sorting operators/commands by precedence.
      */
-    private static String processExpression(String expression) {
+    private static String processExpression(String expression, OutputSink out) {
         // StringBuilder to hold numbers and operators separately
         StringBuilder numbers = new StringBuilder();
         StringBuilder operators = new StringBuilder();
@@ -144,7 +154,7 @@ public class alterInput {
             } 
             // If the character is not recognized throw an error message a
             else {
-                Errors.displayInvalidOperatorError(c + "");
+                Errors.displayInvalidOperatorError(c + "", out);
                 // Append the previously formed number
                 // e.g., if we have "123*" and we reach this else because of "*"
                 // "123" is still a valid number
@@ -193,7 +203,8 @@ public class alterInput {
         }
     
         // Sort the operators based on their precedence
-        operatorList.sort((a, b) -> Integer.compare(Constants.PRECEDENCE.get(b), Constants.PRECEDENCE.get(a)));
+        OperatorRegistry registry = OperatorRegistry.standard();
+        operatorList.sort((a, b) -> Integer.compare(registry.precedenceOf(b), registry.precedenceOf(a)));
     
         // Build the sorted operators string, appending each operator followed by a space
         StringBuilder sortedOperators = new StringBuilder();
@@ -209,7 +220,7 @@ public class alterInput {
      * Method to check if a char c is an operator or command
      */
     private static boolean isOperatorOrCommand(char c) {
-        return Constants.PRECEDENCE.containsKey(c);
+        return OperatorRegistry.standard().opcodeOf(c) != OperatorRegistry.NONE;
     }
 
 }
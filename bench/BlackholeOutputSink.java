@@ -0,0 +1,30 @@
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Output sink that hands everything written to a JMH Blackhole,
+ * so benchmarks measure the calculator and not the console.
+ */
+
+public class BlackholeOutputSink implements OutputSink {
+
+    private final Blackhole blackhole;
+
+    // Constructor for a sink consuming into the given Blackhole.
+    public BlackholeOutputSink(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void printLine(String text) {
+        blackhole.consume(text);
+    }
+
+    @Override
+    public void printValue(long value) {
+        blackhole.consume(value);
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark comparing getting a session's state back by re-running its history with
+ * resuming it from a checkpoint, for histories of different lengths, and the cost of
+ * writing a checkpoint, which is forced to disk.
+ *
+ * java -jar bench/target/benchmarks.jar CheckpointBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckpointBenchmark {
+
+    // Lines in the history of the session
+    @Param({"1000", "100000"})
+    public int history;
+
+    private String[] lines;
+    private Path checkpoint;
+    private SRPN session;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException {
+        lines = new String[history];
+        for (int i = 0; i < history; i++) {
+            // Lines that keep the stack part full and move "r" along
+            lines[i] = i % 3 == 0 ? "r " + i + " +" : i % 3 == 1 ? (i % 20) + " 3 *" : "+ d";
+        }
+        session = new SRPN(Constants.PROGRAM_CACHE_SIZE, new BlackholeOutputSink(blackhole));
+        for (String line : lines) {
+            session.processCommand(line);
+        }
+        checkpoint = Files.createTempFile("srpn", ".checkpoint");
+        session.checkpoint(checkpoint);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(checkpoint);
+    }
+
+    @Benchmark
+    public SRPN rerunHistory() {
+        session.reset();
+        for (String line : lines) {
+            session.processCommand(line);
+        }
+        return session;
+    }
+
+    @Benchmark
+    public SRPN resume() throws IOException {
+        session.resume(checkpoint);
+        return session;
+    }
+
+    @Benchmark
+    public SRPN checkpoint() throws IOException {
+        session.checkpoint(checkpoint);
+        return session;
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark comparing one processCommand call per row with ColumnEvaluator applying
+ * the same formula to whole columns, single-threaded and on every core. Scores are rows
+ * per second; the per-row lines are built before measuring, so only evaluation counts.
+ *
+ * java -jar bench/target/benchmarks.jar ColumnarBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarBenchmark {
+
+    private static final int ROWS = 1 << 20;
+
+    // "clean" rows never report an error, "errors" has a divisor of 0 in about one row in a hundred
+    @Param({"clean", "errors"})
+    public String rows;
+
+    private static final String FORMULA = "$price $quantity * $discount - 100 / $price $quantity % +";
+
+    private final int[] price = new int[ROWS];
+    private final int[] quantity = new int[ROWS];
+    private final int[] discount = new int[ROWS];
+    private String[] lines;
+
+    private ColumnProgram program;
+    private ColumnEvaluator single;
+    private ColumnEvaluator parallel;
+    private SRPN srpn;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        Random random = new Random(42);
+        lines = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            price[i] = 1 + random.nextInt(10000);
+            quantity[i] = rows.equals("errors") && random.nextInt(100) == 0 ? 0 : 1 + random.nextInt(50);
+            discount[i] = random.nextInt(500);
+            lines[i] = FORMULA.replace("$price", Integer.toString(price[i]))
+                    .replace("$quantity", Integer.toString(quantity[i]))
+                    .replace("$discount", Integer.toString(discount[i])) + " =";
+        }
+        program = ColumnProgram.compile(FORMULA);
+        single = new ColumnEvaluator(1);
+        parallel = new ColumnEvaluator(Runtime.getRuntime().availableProcessors());
+        srpn = new SRPN(Constants.PROGRAM_CACHE_SIZE, new BlackholeOutputSink(blackhole));
+    }
+
+    @TearDown
+    public void tearDown() {
+        single.shutdown();
+        parallel.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void perRow() {
+        for (int i = 0; i < ROWS; i++) {
+            // A modulo by zero ends the session, so each row starts a fresh one
+            srpn.reset();
+            srpn.processCommand(lines[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public ColumnResult columnar() {
+        return single.evaluate(program, price, quantity, discount);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public ColumnResult columnarParallel() {
+        return parallel.evaluate(program, price, quantity, discount);
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark for a hot line evaluated by the interpreter, against the same line compiled
+ * to a hidden class by ProgramCompiler. The lines work on the operand left by the line before,
+ * so constant folding cannot work them out in advance, and leave the stack as deep as they
+ * found it.
+ *
+ * java -jar bench/target/benchmarks.jar CompiledTierBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledTierBenchmark {
+
+    @Param({"short", "long"})
+    public String shape;
+
+    private SRPN interpreted;
+    private SRPN compiled;
+    private String line;
+
+    @Setup
+    public void setUp() {
+        line = shape.equals("short")
+                ? "3 * 7 + 1000 %"
+                : "2 * 3 + 5 * 7 - 11 % 13 + 17 * 100000 % 3 ^ 9 / 1000 % 2 * 5 -";
+        interpreted = new SRPN(Constants.PROGRAM_CACHE_SIZE, new MemoryOutputSink());
+        compiled = new SRPN(Constants.PROGRAM_CACHE_SIZE, new MemoryOutputSink());
+        compiled.setCompileThreshold(1);
+        interpreted.evaluate("1");
+        compiled.evaluate("1");
+    }
+
+    @Benchmark
+    public EvalResult interpreter() {
+        return interpreted.evaluate(line);
+    }
+
+    @Benchmark
+    public EvalResult hiddenClass() {
+        return compiled.evaluate(line);
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark comparing folded and unfolded execution of generated constant chains,
+ * both through the compiled line cache so that only execution is measured.
+ *
+ * java -jar bench/target/benchmarks.jar ConstantFoldingBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstantFoldingBenchmark {
+
+    // "sum" is "1 1 + 1 + ...", "products" is "0 3 4 + 5 * + 3 4 + 5 * + ..."
+    @Param({"sum", "products"})
+    public String chain;
+
+    // Number of operators in the chain
+    @Param({"10", "100", "1000"})
+    public int length;
+
+    private String line;
+    private SRPN folded;
+    private SRPN unfolded;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        line = line(chain, length);
+        OutputSink sink = new BlackholeOutputSink(blackhole);
+        folded = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        unfolded = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        unfolded.setConstantFolding(false);
+    }
+
+    /**
+     * Generates a chain with the given number of operators, ending with "=".
+     */
+    static String line(String chain, int length) {
+        StringBuilder line = new StringBuilder();
+        switch (chain) {
+            case "sum":
+                line.append("1");
+                for (int i = 0; i < length; i++) {
+                    line.append(" 1 +");
+                }
+                break;
+            case "products":
+                line.append("0");
+                for (int i = 0; i < length / 3; i++) {
+                    line.append(" 3 4 + 5 * +");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown chain " + chain);
+        }
+        return line.append(" =").toString();
+    }
+
+    @Benchmark
+    public Long folded() {
+        folded.clearStack();
+        return folded.processCommand(line);
+    }
+
+    @Benchmark
+    public Long unfolded() {
+        unfolded.clearStack();
+        return unfolded.processCommand(line);
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test client for SRPNServer.
+ * Opens the given number of sessions, waits until all of them are connected, then has
+ * each one send its lines one at a time and time how long every answer takes.
+ * Reports the p50, p99 and p99.9 latency per line and the overall throughput.
+ *
+ * Start the server with: java Main --server 7878
+ * Then run:              java LoadTestClient [port] [sessions] [lines per session]
+ */
+
+public class LoadTestClient {
+
+    // Lines sent by each session in turn
+    private static final String[] LINES = {
+        "3+4 2-4", "r r * d", "1 2 + # comment # 3 *", "10 3 % =", "2^5 d", "12*3+4^2 ="
+    };
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : SRPNServer.DEFAULT_PORT;
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int linesPerSession = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        long[][] latencies = new long[sessions][];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch connected = new CountDownLatch(sessions);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(sessions);
+
+        ExecutorService executor = SRPNServer.newSessionExecutor();
+        for (int i = 0; i < sessions; i++) {
+            int session = i;
+            executor.execute(() -> {
+                boolean[] hasConnected = new boolean[1];
+                try {
+                    latencies[session] = runSession(port, linesPerSession, () -> {
+                        hasConnected[0] = true;
+                        connected.countDown();
+                    }, start);
+                } catch (IOException | InterruptedException e) {
+                    failures.incrementAndGet();
+                    // A session that failed after connecting has already been counted
+                    if (!hasConnected[0]) {
+                        connected.countDown();
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        // Release all sessions at once so that they really are concurrent
+        connected.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+        finished.await();
+        long elapsed = System.nanoTime() - startTime;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // Gather every latency into one sorted array
+        int count = 0;
+        for (long[] session : latencies) {
+            count += session == null ? 0 : session.length;
+        }
+        long[] all = new long[count];
+        int position = 0;
+        for (long[] session : latencies) {
+            if (session != null) {
+                System.arraycopy(session, 0, all, position, session.length);
+                position += session.length;
+            }
+        }
+        Arrays.sort(all);
+
+        System.out.println("sessions:    " + sessions + " (" + failures.get() + " failed or turned away)");
+        System.out.println("lines:       " + count);
+        System.out.println(String.format("throughput:  %.0f lines/sec", count / (elapsed / 1e9)));
+        if (count > 0) {
+            System.out.println(String.format("p50:         %.1f us", percentile(all, 0.50) / 1e3));
+            System.out.println(String.format("p99:         %.1f us", percentile(all, 0.99) / 1e3));
+            System.out.println(String.format("p99.9:       %.1f us", percentile(all, 0.999) / 1e3));
+            System.out.println(String.format("max:         %.1f us", all[all.length - 1] / 1e3));
+        }
+    }
+
+    /**
+     * Connects one session, runs onConnected once it has, waits for the start signal and times each line sent.
+     */
+    private static long[] runSession(int port, int lines, Runnable onConnected, CountDownLatch start)
+            throws IOException, InterruptedException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            onConnected.run();
+            start.await();
+
+            long[] latencies = new long[lines];
+            for (int i = 0; i < lines; i++) {
+                byte[] request = (LINES[i % LINES.length] + "\n").getBytes(StandardCharsets.UTF_8);
+                long sent = System.nanoTime();
+                out.write(request);
+                out.flush();
+
+                // Read the answer up to the empty line that ends it
+                String answer;
+                while ((answer = in.readLine()) != null && !answer.isEmpty()) {
+                    if (answer.equals(SRPNServer.BUSY_MESSAGE)) {
+                        throw new IOException("Server busy");
+                    }
+                }
+                if (answer == null) {
+                    throw new IOException("Session closed early");
+                }
+                latencies[i] = System.nanoTime() - sent;
+            }
+            return latencies;
+        }
+    }
+
+    /**
+     * Returns the value at the given fraction of a sorted array.
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
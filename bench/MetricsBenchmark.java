@@ -0,0 +1,64 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark for the cost of the runtime metrics: the same lines are processed by a
+ * session without metrics and by one collecting them, timing one line in sampleInterval
+ * as "--metrics-sample" would, and the throughputs compared.
+ *
+ * java -jar bench/target/benchmarks.jar MetricsBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MetricsBenchmark {
+
+    @Param({"merged", "comments", "overflow", "print"})
+    public String input;
+
+    @Param({"64", "1024"})
+    public int sampleInterval;
+
+    private String line;
+
+    // Sessions without and with metrics
+    private SRPN plain;
+    private SRPN measured;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        line = SRPNBenchmark.line(input);
+        OutputSink sink = new BlackholeOutputSink(blackhole);
+        plain = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        measured = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        measured.setMetrics(new Metrics(sampleInterval));
+    }
+
+    @Benchmark
+    public Long withoutMetrics() {
+        plain.clearStack();
+        return plain.processCommand(line);
+    }
+
+    @Benchmark
+    public Long withMetrics() {
+        measured.clearStack();
+        return measured.processCommand(line);
+    }
+}
@@ -0,0 +1,81 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Allocation benchmark for the operand stack.
+ * Runs the push, pop and saturate cycle that SRPN performs for every operand and
+ * operator, and reports how many bytes the measuring thread allocated per operation.
+ * Exits with status 1 if anything is allocated after warm-up.
+ *
+ * Run with: java -cp <classes> OperandStackAllocationBenchmark [iterations]
+ */
+
+public class OperandStackAllocationBenchmark {
+
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASUREMENT_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        OperandStack stack = new ArrayOperandStack();
+        EvalResult result = new EvalResult();
+
+        // Warm up so that the JIT has compiled the loop before measuring
+        long checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            checksum += run(stack, result, WARMUP_ITERATIONS);
+        }
+
+        // Measure a few times and keep the lowest figures, so that one-off costs
+        // such as class loading on the first measurement are not counted
+        long allocated = Long.MAX_VALUE;
+        long elapsed = Long.MAX_VALUE;
+        for (int round = 0; round < MEASUREMENT_ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            checksum += run(stack, result, iterations);
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        // Each iteration pushes three operands and applies two operators
+        long operations = iterations * 5L;
+        System.out.println("operations:        " + operations);
+        System.out.println("ns per operation:  " + String.format("%.2f", (double) elapsed / operations));
+        System.out.println("bytes allocated:   " + allocated);
+        System.out.println("bytes per op:      " + String.format("%.4f", (double) allocated / operations));
+        System.out.println("checksum:          " + checksum);
+
+        if (allocated > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Evaluates "a b + r *" repeatedly against the stack, the way SRPN does.
+     */
+    private static long run(OperandStack stack, EvalResult result, int iterations) {
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            stack.clear();
+            stack.push(i);
+            stack.push(Constants.MAX_OPERAND_VALUE - i);
+
+            long b = Token.saturateOperand(stack.pop());
+            long a = Token.saturateOperand(stack.pop());
+            stack.push(Token.saturateOperand(a + b));
+
+            Commands.handleRandom(stack, i % Constants.RANDOM_NUMBERS.length, result);
+
+            b = Token.saturateOperand(stack.pop());
+            a = Token.saturateOperand(stack.pop());
+            stack.push(Token.saturateOperand(a * b));
+
+            checksum += stack.peek();
+        }
+        return checksum;
+    }
+}
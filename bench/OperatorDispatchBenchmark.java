@@ -0,0 +1,131 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark comparing operator dispatch with a switch on the token String, as the
+ * calculator used to do, against a switch on opcodes resolved once by OperatorRegistry,
+ * and against registered operators applied through the registry.
+ *
+ * java -jar bench/target/benchmarks.jar OperatorDispatchBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperatorDispatchBenchmark {
+
+    private static final int TOKENS = 1024;
+    private static final String[] BUILT_IN = {"+", "-", "*", "/", "%", "^"};
+    private static final String[] EXTENDED = {"<", ">", "&", "|"};
+
+    private final String[] tokens = new String[TOKENS];
+    private final int[] opcodes = new int[TOKENS];
+    private final String[] extendedTokens = new String[TOKENS];
+    private final int[] extendedOpcodes = new int[TOKENS];
+    private final long[] operands = new long[TOKENS];
+    private final OperatorRegistry registry = OperatorRegistry.extended();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < TOKENS; i++) {
+            // Fresh Strings, as tokens split from a line would be
+            tokens[i] = new String(BUILT_IN[random.nextInt(BUILT_IN.length)]);
+            opcodes[i] = registry.opcodeOf(tokens[i].charAt(0));
+            extendedTokens[i] = new String(EXTENDED[random.nextInt(EXTENDED.length)]);
+            extendedOpcodes[i] = registry.opcodeOf(extendedTokens[i].charAt(0));
+            // Small positive operands, so that no operator reports an error
+            operands[i] = 1 + random.nextInt(3);
+        }
+    }
+
+    @Benchmark
+    public long stringSwitch() {
+        long accumulator = 7;
+        for (int i = 0; i < TOKENS; i++) {
+            accumulator = Token.saturateOperand(applyString(tokens[i], Token.saturateOperand(accumulator), operands[i]));
+        }
+        return accumulator;
+    }
+
+    @Benchmark
+    public long opcodeSwitch() {
+        long accumulator = 7;
+        for (int i = 0; i < TOKENS; i++) {
+            accumulator = Token.saturateOperand(Arithmetic.apply(opcodes[i], Token.saturateOperand(accumulator), operands[i]));
+        }
+        return accumulator;
+    }
+
+    @Benchmark
+    public long stringSwitchExtended() {
+        long accumulator = 7;
+        for (int i = 0; i < TOKENS; i++) {
+            accumulator = applyStringExtended(extendedTokens[i], accumulator, operands[i]);
+        }
+        return accumulator;
+    }
+
+    @Benchmark
+    public long registryExtended() {
+        long accumulator = 7;
+        for (int i = 0; i < TOKENS; i++) {
+            accumulator = registry.apply(extendedOpcodes[i], accumulator, operands[i]);
+        }
+        return accumulator;
+    }
+
+    /**
+     * Applies a built-in operator by switching on its token, the way SRPN used to.
+     */
+    private static long applyString(String operator, long a, long b) {
+        switch (operator) {
+            case "+":
+                return a + b;
+            case "-":
+                return a - b;
+            case "*":
+                return a * b;
+            case "/":
+                return a / b;
+            case "%":
+                return a % b;
+            case "^":
+                return Arithmetic.power(a, b);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Applies an extension operator by switching on its token.
+     */
+    private static long applyStringExtended(String operator, long a, long b) {
+        switch (operator) {
+            case "<":
+                return Math.min(a, b);
+            case ">":
+                return Math.max(a, b);
+            case "&":
+                return a & b;
+            case "|":
+                return a | b;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark comparing the sequential loop of Main with "--pipeline": the same script is
+ * read from memory, evaluated and written to a stream that discards it, once on one thread
+ * and once through PipelinedRunner's reader, evaluator and writer threads. Scores are lines
+ * per second, so the ratio of the two is the gain from the pipeline; with fewer cores than
+ * threads the three compete for the CPU and the pipeline can only lose.
+ *
+ * java -jar bench/target/benchmarks.jar PipelineBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PipelineBenchmark {
+
+    private static final int LINES = 1 << 17;
+
+    // Output buffered before it is written, as Main's default
+    private static final int FLUSH_BYTES = 64 * 1024;
+
+    private static final String[] SCRIPT_LINES = {
+        "1 2 + =", "3 4 * 5 - =", "2 10 ^ 7 % =", "100 7 / 3 * =", "d", "9 8 7 6 5 + + + + =", "r r + =", "1 +2 =",
+    };
+
+    private byte[] script;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(20);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            // "d" after every few lines keeps the stack from filling up
+            text.append(i % 8 == 7 ? "d" : SCRIPT_LINES[random.nextInt(SCRIPT_LINES.length)]).append('\n');
+        }
+        script = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void sequential() throws IOException {
+        BufferedOutputSink out = new BufferedOutputSink(OutputStream.nullOutputStream(), FlushPolicy.END, FLUSH_BYTES);
+        SRPN srpn = new SRPN(Constants.PROGRAM_CACHE_SIZE, out);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(script)));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            srpn.processCommand(line);
+        }
+        out.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void pipelined() throws IOException {
+        PipelinedRunner runner = new PipelinedRunner(FlushPolicy.END, FLUSH_BYTES);
+        SRPN srpn = new SRPN(Constants.PROGRAM_CACHE_SIZE, runner.output());
+        runner.run(srpn, new ByteArrayInputStream(script), OutputStream.nullOutputStream(), null);
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark comparing Arithmetic.power with the (long) Math.pow it replaced,
+ * both saturated, over a fixed set of operand pairs of each kind.
+ *
+ * java -jar bench/target/benchmarks.jar PowerBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PowerBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    // "small" results that fit, "saturating" results that pass the operand range,
+    // "huge" exponents, and "special" bases 0, 1, -1 and powers of two
+    @Param({"small", "saturating", "huge", "special"})
+    public String operands;
+
+    private final long[] bases = new long[PAIRS];
+    private final long[] exponents = new long[PAIRS];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < PAIRS; i++) {
+            switch (operands) {
+                case "small":
+                    bases[i] = random.nextInt(41) - 20;
+                    exponents[i] = 2 + random.nextInt(6);
+                    break;
+                case "saturating":
+                    bases[i] = random.nextInt(2001) - 1000;
+                    exponents[i] = 4 + random.nextInt(30);
+                    break;
+                case "huge":
+                    bases[i] = random.nextInt(2001) - 1000;
+                    exponents[i] = Integer.MAX_VALUE - random.nextInt(1000);
+                    break;
+                case "special":
+                    long[] special = {0, 1, -1, 2, -4, 1024, -65536};
+                    bases[i] = special[random.nextInt(special.length)];
+                    exponents[i] = random.nextInt(40);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operands " + operands);
+            }
+        }
+    }
+
+    @Benchmark
+    public long mathPow() {
+        long sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += Token.saturateOperand((long) Math.pow(bases[i], exponents[i]));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long power() {
+        long sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            sum += Token.saturateOperand(Arithmetic.power(bases[i], exponents[i]));
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks for the parse, evaluate and end-to-end paths of the SRPN calculator.
+ * Each path is measured on the same set of realistic lines, reporting throughput and
+ * average latency. Run with "-prof gc" to add the allocation rate.
+ *
+ * java -jar bench/target/benchmarks.jar SRPNBenchmark -prof gc
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SRPNBenchmark {
+
+    @Param({"merged", "comments", "overflow", "print"})
+    public String input;
+
+    // The line being measured, and its tokens for evaluateExpression
+    private String line;
+    private String[] tokens;
+
+    // Sessions with and without the compiled line cache
+    private SRPN cached;
+    private SRPN uncached;
+
+    private OutputSink sink;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        line = line(input);
+        sink = new BlackholeOutputSink(blackhole);
+        cached = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        uncached = new SRPN(0, sink);
+        tokens = SRPN.parseConsoleInput(line);
+    }
+
+    /**
+     * Returns the line for each kind of input.
+     */
+    static String line(String input) {
+        switch (input) {
+            // Merged expressions that need unmerging and precedence ordering
+            case "merged":
+                return "3+4*2-1 10/5^2 2+2*3 -4 1 + 12*3+4^2 r r * 7%3";
+            // Lines that are mostly comments
+            case "comments":
+                return "1 2 + # add the first two # 3 * # then multiply # 4 - # and take one off # = # show it #";
+            // More operands than the stack can hold, so most pushes report an overflow
+            case "overflow":
+                return "1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 21 22 23 24 25 26 27 28 29 30 31 32";
+            // Printing the stack over and over
+            case "print":
+                return "1 2 3 4 5 6 7 8 9 10 d d d d d = = =";
+            default:
+                throw new IllegalArgumentException("Unknown input " + input);
+        }
+    }
+
+    @Benchmark
+    public String alterConsoleInput() {
+        return alterInput.alterConsoleInput(line.toLowerCase(), sink);
+    }
+
+    @Benchmark
+    public String[] parseConsoleInput() {
+        return SRPN.parseConsoleInput(line);
+    }
+
+    @Benchmark
+    public Long evaluateExpression() {
+        cached.clearStack();
+        return cached.evaluateExpression(tokens);
+    }
+
+    @Benchmark
+    public Long processCommand() {
+        cached.clearStack();
+        return cached.processCommand(line);
+    }
+
+    @Benchmark
+    public Long processCommandUncached() {
+        uncached.clearStack();
+        return uncached.processCommand(line);
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark for snapshots of a session: taking and restoring one, forking the session,
+ * and undoing a line, at different stack depths; and the cost the undo history adds to
+ * every line, against a session without one.
+ *
+ * java -jar bench/target/benchmarks.jar SnapshotBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    // Operands on the stack of the session
+    @Param({"1", "23"})
+    public int depth;
+
+    private SRPN session;
+    private SRPN.Snapshot snapshot;
+    private SRPN plain;
+    private SRPN undoable;
+    private String line;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        OutputSink sink = new BlackholeOutputSink(blackhole);
+        StringBuilder operands = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            operands.append(i).append(' ');
+        }
+        session = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        session.processCommand(operands);
+        snapshot = session.snapshot();
+
+        line = SRPNBenchmark.line("merged");
+        plain = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        undoable = new SRPN(Constants.PROGRAM_CACHE_SIZE, sink);
+        undoable.setUndoHistory(100);
+    }
+
+    @Benchmark
+    public SRPN.Snapshot snapshotAndRestore() {
+        SRPN.Snapshot taken = session.snapshot();
+        session.restore(snapshot);
+        return taken;
+    }
+
+    @Benchmark
+    public SRPN fork() {
+        return session.fork();
+    }
+
+    @Benchmark
+    public SRPN newSession() {
+        return new SRPN(Constants.PROGRAM_CACHE_SIZE, session.getOutput());
+    }
+
+    @Benchmark
+    public boolean lineThenUndo() {
+        undoable.processCommand("1 2 +");
+        return undoable.undo();
+    }
+
+    @Benchmark
+    public Long lineWithoutUndoHistory() {
+        plain.clearStack();
+        return plain.processCommand(line);
+    }
+
+    @Benchmark
+    public Long lineWithUndoHistory() {
+        undoable.clearStack();
+        return undoable.processCommand(line);
+    }
+}
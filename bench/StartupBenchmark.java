@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Startup benchmark for short-lived calculator processes.
+ * Launches Main over and over, the way a job runner would, in each of a few configurations:
+ * the plain launch, the launch with the AppCDS archive written by "mvn -Pcds package", and
+ * that again with the JIT and garbage collector chosen for short runs.
+ * For each launch it times how long the first result takes to come back from when the
+ * process is started, and reads the peak resident set size of the process (VmHWM, on Linux)
+ * once it has answered. Reports the median and p90 time to first result and the median peak RSS.
+ *
+ * Build the jar and archive with: mvn -Pcds package
+ * Then run:                       java -cp bench/target/benchmarks.jar srpn.StartupBenchmark [launches] [jar] [archive]
+ */
+
+public class StartupBenchmark {
+
+    // Line sent to each process, and the result it answers with first
+    private static final String LINE = "3 4 + 2 * =\n";
+
+    public static void main(String[] args) throws Exception {
+        int launches = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        Path jar = Paths.get(args.length > 1 ? args[1] : "target/srpn-calculator-1.0-SNAPSHOT.jar");
+        Path archive = Paths.get(args.length > 2 ? args[2] : "target/srpn.jsa");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<String[]> configurations = new ArrayList<>();
+        configurations.add(new String[] {"plain", java, "-jar", jar.toString()});
+        if (Files.exists(archive)) {
+            configurations.add(new String[] {"CDS", java, "-XX:SharedArchiveFile=" + archive, "-jar", jar.toString()});
+            configurations.add(new String[] {"CDS + C1, SerialGC", java, "-XX:SharedArchiveFile=" + archive,
+                    "-XX:TieredStopAtLevel=1", "-XX:+UseSerialGC", "-jar", jar.toString()});
+        } else {
+            System.err.println("No CDS archive at " + archive + ", build it with: mvn -Pcds package");
+        }
+
+        System.out.println(String.format("%-34s %12s %12s %14s", "launch", "p50 ms", "p90 ms", "peak RSS MB"));
+        for (String[] configuration : configurations) {
+            String[] command = Arrays.copyOfRange(configuration, 1, configuration.length);
+            // The first launch warms the file system cache and is not counted
+            launch(command);
+            long[] nanos = new long[launches];
+            long[] rss = new long[launches];
+            for (int i = 0; i < launches; i++) {
+                long[] measured = launch(command);
+                nanos[i] = measured[0];
+                rss[i] = measured[1];
+            }
+            Arrays.sort(nanos);
+            Arrays.sort(rss);
+            System.out.println(String.format("%-34s %12.1f %12.1f %14s", configuration[0],
+                    nanos[launches / 2] / 1e6, nanos[(int) (launches * 0.9)] / 1e6,
+                    rss[launches / 2] < 0 ? "n/a" : String.format("%.1f", rss[launches / 2] / 1024.0)));
+        }
+    }
+
+    /**
+     * Launches the command, sends it LINE and waits for the first byte of the answer.
+     * Returns the nanoseconds that took from the start of the process and its peak RSS in KB, or -1 if that is not known.
+     */
+    private static long[] launch(String[] command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        OutputStream in = process.getOutputStream();
+        in.write(LINE.getBytes(StandardCharsets.US_ASCII));
+        in.flush();
+        InputStream out = process.getInputStream();
+        if (out.read() < 0) {
+            throw new IOException("No result from " + String.join(" ", command));
+        }
+        long nanos = System.nanoTime() - start;
+
+        // The process is still waiting for more input, so its peak RSS can be read
+        long rss = peakRss(process.pid());
+        in.close();
+        out.readAllBytes();
+        process.waitFor();
+        return new long[] {nanos, rss};
+    }
+
+    /**
+     * Returns the peak resident set size of a process in KB, or -1 where /proc is not available.
+     */
+    private static long peakRss(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    String kilobytes = line.substring("VmHWM:".length()).trim();
+                    return Long.parseLong(kilobytes.substring(0, kilobytes.indexOf(' ')));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or the process has gone
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark for lines that repeat a sequence of tokens written out in full, against the
+ * same lines using a word defined as that sequence. Each line starts with a different operand,
+ * more of them than the program cache holds, so every line is cleaned and compiled as it would
+ * be for lines of data; the word's tokens were cleaned once, when it was defined.
+ *
+ * java -jar bench/target/benchmarks.jar WordBenchmark
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordBenchmark {
+
+    // Distinct lines, twice as many as the program cache holds
+    private static final int LINES = Constants.PROGRAM_CACHE_SIZE * 2;
+
+    // Times the sequence is used on each line
+    @Param({"1", "8"})
+    public int uses;
+
+    private SRPN textual;
+    private SRPN words;
+    private String[] textualLines;
+    private String[] wordLines;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        String body = "3 * 7 + 1000 % 2 ^ 17 - 100000 % ";
+        textual = new SRPN(Constants.PROGRAM_CACHE_SIZE, new MemoryOutputSink());
+        words = new SRPN(Constants.PROGRAM_CACHE_SIZE, new MemoryOutputSink());
+        words.setWords(true);
+        words.evaluate(": step " + body + ";");
+
+        textualLines = new String[LINES];
+        wordLines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            StringBuilder textualLine = new StringBuilder().append(i).append(' ');
+            StringBuilder wordLine = new StringBuilder().append(i).append(' ');
+            for (int j = 0; j < uses; j++) {
+                textualLine.append(body);
+                wordLine.append("step ");
+            }
+            textualLines[i] = textualLine.toString();
+            wordLines[i] = wordLine.toString();
+        }
+    }
+
+    // Each line leaves one operand, which is cleared so that the stack never fills up
+    @Benchmark
+    public EvalResult textual() {
+        textual.clearStack();
+        return textual.evaluate(textualLines[next++ & (LINES - 1)]);
+    }
+
+    @Benchmark
+    public EvalResult word() {
+        words.clearStack();
+        return words.evaluate(wordLines[next++ & (LINES - 1)]);
+    }
+}
@@ -0,0 +1,93 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for Arithmetic.power against what "^" gave before it: (long) Math.pow of the
+ * saturated operands, saturated. Covers a dense grid of small bases and exponents, the
+ * bases whose powers sit next to the ends of the operand range, the edge values of the
+ * range and exponents up to the largest operand.
+ */
+
+public class ArithmeticTest {
+
+    // Exponents at and around the points where the edge bases saturate, and the largest ones
+    private static final long[] EDGE_EXPONENTS = {
+        0, 1, 2, 3, 4, 5, 7, 8, 15, 16, 17, 29, 30, 31, 32, 33, 62, 63, 64, 65, 127, 128, 1000, 65535, 65536,
+        Integer.MAX_VALUE - 1, Integer.MAX_VALUE
+    };
+
+    /**
+     * Returns the result "^" gave before Arithmetic.power.
+     */
+    private static long baseline(long base, long exponent) {
+        return Token.saturateOperand((long) Math.pow(base, exponent));
+    }
+
+    private static void assertPower(long base, long exponent) {
+        assertEquals(baseline(base, exponent), Arithmetic.power(base, exponent), base + " ^ " + exponent);
+    }
+
+    @Test
+    public void matchesMathPowOnDenseGrid() {
+        for (long base = -2000; base <= 2000; base++) {
+            for (long exponent = 0; exponent <= 64; exponent++) {
+                assertPower(base, exponent);
+            }
+        }
+    }
+
+    @Test
+    public void matchesMathPowForSmallBasesAndLongExponents() {
+        for (long base = -40; base <= 40; base++) {
+            for (long exponent = 0; exponent <= 4096; exponent++) {
+                assertPower(base, exponent);
+            }
+        }
+    }
+
+    @Test
+    public void matchesMathPowAtEdgeValues() {
+        long[] bases = {
+            0, 1, -1, 2, -2, 3, -3, 46340, -46340, 46341, -46341, 1290, -1290, 1291, -1291, 215, -215, 216, -216,
+            Constants.MAX_OPERAND_VALUE, Constants.MIN_OPERAND_VALUE,
+            Constants.MAX_OPERAND_VALUE - 1, Constants.MIN_OPERAND_VALUE + 1
+        };
+        for (long base : bases) {
+            for (long exponent : EDGE_EXPONENTS) {
+                assertPower(base, exponent);
+            }
+            assertPower(base, Constants.MAX_OPERAND_VALUE);
+        }
+    }
+
+    @Test
+    public void matchesMathPowForPowersOfTwo() {
+        for (int shift = 0; shift <= 31; shift++) {
+            long power = 1L << shift;
+            for (long base : new long[] {power, -power, power - 1, -(power - 1), power + 1, -(power + 1)}) {
+                if (base < Constants.MIN_OPERAND_VALUE || base > Constants.MAX_OPERAND_VALUE) {
+                    continue;
+                }
+                for (long exponent = 0; exponent <= 70; exponent++) {
+                    assertPower(base, exponent);
+                }
+                for (long exponent : EDGE_EXPONENTS) {
+                    assertPower(base, exponent);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesMathPowForRandomOperands() {
+        Random random = new Random(14);
+        for (int i = 0; i < 2_000_000; i++) {
+            long base = random.nextInt();
+            long exponent = random.nextBoolean() ? random.nextInt(40) : random.nextInt(Integer.MAX_VALUE);
+            assertPower(base, exponent);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for checkpointing and resuming a session: a resumed session must carry on with the
+ * same output as the session it was checkpointed from, words included, and a checkpoint whose
+ * words do not decode must be refused without changing the session.
+ */
+
+public class CheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void resumesWords() throws IOException {
+        String[] before = {": sq 2 ^ ;", ": quad sq sq ;", ": sq 3 ^ ;", "3 sq =", "5 6"};
+        String[] after = {"4 sq = quad =", "+ =", "sq d"};
+        Path file = directory.resolve("words.bin");
+
+        MemoryOutputSink expected = new MemoryOutputSink();
+        SRPN session = wordSession(expected);
+        run(session, before);
+        session.checkpoint(file);
+        expected.clear();
+        run(session, after);
+
+        MemoryOutputSink resumed = new MemoryOutputSink();
+        SRPN resumedSession = wordSession(resumed);
+        resumedSession.processCommand(": sq ;");
+        resumedSession.resume(file);
+        run(resumedSession, after);
+        assertEquals(expected.toString(), resumed.toString());
+    }
+
+    @Test
+    public void resumeTurnsWordsOn() throws IOException {
+        Path file = directory.resolve("words.bin");
+        SRPN session = wordSession(new MemoryOutputSink());
+        run(session, ": sq 2 ^ ;", "9");
+        session.checkpoint(file);
+
+        MemoryOutputSink out = new MemoryOutputSink();
+        SRPN resumed = new SRPN(Constants.PROGRAM_CACHE_SIZE, out);
+        resumed.resume(file);
+        run(resumed, "sq =");
+        assertEquals("81\n", out.toString());
+    }
+
+    @Test
+    public void refusesInvalidWords() throws IOException {
+        Path file = directory.resolve("words.bin");
+        SRPN session = wordSession(new MemoryOutputSink());
+        run(session, ": sq 2 ^ ;", "9");
+        session.checkpoint(file);
+
+        // Renames the word to one that is not a name, and puts a matching checksum on it
+        byte[] bytes = Files.readAllBytes(file);
+        int name = indexOf(bytes, "sq");
+        bytes[name] = 'S';
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Integer.BYTES);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - Integer.BYTES, (int) crc.getValue());
+        Files.write(file, bytes);
+
+        MemoryOutputSink out = new MemoryOutputSink();
+        SRPN resumed = wordSession(out);
+        run(resumed, ": sq 3 ^ ;", "2");
+        assertThrows(IOException.class, () -> resumed.resume(file));
+        run(resumed, "sq =");
+        assertEquals("8\n", out.toString());
+    }
+
+    @Test
+    public void refusesWordsTooLongToResume() throws IOException {
+        Path file = directory.resolve("words.bin");
+        StringBuilder big = new StringBuilder(": big");
+        for (int i = 0; i < 70000; i++) {
+            big.append(" 1");
+        }
+        MemoryOutputSink out = new MemoryOutputSink();
+        SRPN session = wordSession(out);
+        run(session, ": small 7 ;", big + " ;", "small big =");
+        assertEquals("Invalid word definition.\nUnrecognised operator or operand \"b\".\n"
+                + "Unrecognised operator or operand \"i\".\nUnrecognised operator or operand \"g\".\n7\n", out.toString());
+        session.checkpoint(file);
+
+        SRPN resumed = wordSession(out);
+        resumed.resume(file);
+        assertEquals(1, resumed.getWords().size());
+    }
+
+    private static SRPN wordSession(MemoryOutputSink out) {
+        SRPN session = new SRPN(Constants.PROGRAM_CACHE_SIZE, out);
+        session.setWords(true);
+        return session;
+    }
+
+    private static void run(SRPN session, String... lines) {
+        for (String line : lines) {
+            session.processCommand(line);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, String text) {
+        byte[] target = text.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i + target.length <= bytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + target.length, target, 0, target.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError(text + " not found");
+    }
+}
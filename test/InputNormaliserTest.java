@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for InputNormaliser against the alterInput path it replaced, on the lines of
+ * normaliser-corpus.txt: the console sessions SRPN has been checked against, lines of
+ * edge cases and generated lines of merged tokens, comments, tabs, control characters,
+ * non-ASCII digits and upper case.
+ *
+ * For each line, the tokens SRPN evaluates and the characters it reports as unrecognised
+ * must be the same whichever way the line is cleaned. Along the alterInput path those are
+ * the tokens of SRPN.parseConsoleInput as evaluateExpression reads them, and the errors
+ * alterInput writes while cleaning.
+ */
+
+public class InputNormaliserTest {
+
+    private static final String CORPUS = "/normaliser-corpus.txt";
+
+    // How alterInput starts the error for an unrecognised character
+    private static final String UNRECOGNISED_PREFIX = "Unrecognised operator or operand \"";
+
+    @Test
+    public void matchesAlterInputOnCorpus() throws IOException {
+        List<String> lines = readCorpus();
+        int compared = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            // SRPN does nothing with an empty line, whichever way it would be cleaned
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> expected;
+            try {
+                expected = alterInputTokens(line);
+            } catch (StringIndexOutOfBoundsException e) {
+                // alterInput fails on a line that starts with a space once its comments are removed,
+                // such as "# # /d", which InputNormaliser reads as "/d"
+                continue;
+            }
+            assertEquals(expected, normaliserTokens(line), "line " + (i + 1) + " of the corpus: \"" + line + "\"");
+            compared++;
+        }
+        assertTrue(compared > 2000, compared + " lines compared");
+    }
+
+    /**
+     * Returns the tokens and unrecognised characters of a line cleaned by alterInput.
+     */
+    private static List<String> alterInputTokens(String line) {
+        MemoryOutputSink errors = new MemoryOutputSink();
+        String cleaned = alterInput.alterConsoleInput(line.toLowerCase(), errors);
+
+        List<String> tokens = new ArrayList<>();
+        for (String error : errors.toString().split("\n")) {
+            if (!error.isEmpty()) {
+                assertTrue(error.startsWith(UNRECOGNISED_PREFIX), error);
+                tokens.add("unrecognised " + error.charAt(UNRECOGNISED_PREFIX.length()));
+            }
+        }
+        // As SRPN.evaluateExpression reads them, ignoring anything that is not a token
+        for (String token : cleaned.split("\\s+")) {
+            for (String subToken : token.split(" ")) {
+                int type = Lexer.classify(subToken);
+                if (type == Lexer.OPERAND) {
+                    tokens.add("operand " + Token.parseOperand(subToken));
+                } else if (type == Lexer.OPERATOR || type == Lexer.COMMAND) {
+                    tokens.add("opcode " + OperatorRegistry.standard().opcodeOf(subToken.charAt(0)));
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the tokens and unrecognised characters of a line cleaned by InputNormaliser.
+     */
+    private static List<String> normaliserTokens(String line) {
+        TokenBuffer buffer = new TokenBuffer();
+        new InputNormaliser(buffer).normalise(line);
+
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < buffer.unrecognisedCount(); i++) {
+            tokens.add("unrecognised " + buffer.unrecognised(i));
+        }
+        for (int i = 0; i < buffer.size(); i++) {
+            tokens.add(buffer.type(i) == Lexer.OPERAND ? "operand " + buffer.value(i) : "opcode " + buffer.opcode(i));
+        }
+        return tokens;
+    }
+
+    private static List<String> readCorpus() throws IOException {
+        InputStream in = InputNormaliserTest.class.getResourceAsStream(CORPUS);
+        assertNotNull(in, CORPUS);
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,250 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Differential tests for ProgramCompiler: every session is run twice, once interpreted and
+ * once compiling each line the first time it runs (compile threshold 1), and the output must
+ * be the same byte for byte. Lines are repeated so that their compiled form is the one run,
+ * and the tests check that the lines meant to compile did.
+ */
+
+public class ProgramCompilerTest {
+
+    @Test
+    public void overflowAtStackLimit() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            lines.add("1 2 3 4 5");
+            lines.add("d");
+        }
+        for (int i = 0; i < 8; i++) {
+            lines.add("+ + + +");
+            lines.add("=");
+            lines.add("7 8 9");
+        }
+        assertSameOutput(lines, session -> { });
+        assertCompiled(lines, "1 2 3 4 5");
+    }
+
+    @Test
+    public void nonConstantErrorsFallBackToInterpreter() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            lines.add("100 " + (i % 3));
+            lines.add("/ =");
+            lines.add("7 " + (i % 3 - 1));
+            lines.add("^ =");
+            lines.add("d");
+        }
+        // A modulo by zero ends the session, so it comes last
+        for (int i = 3; i >= 0; i--) {
+            lines.add("100 " + i);
+            lines.add("% =");
+        }
+        lines.add("1 =");
+        assertSameOutput(lines, session -> { });
+        assertCompiled(lines, "/ =");
+        assertCompiled(lines, "^ =");
+        assertCompiled(lines, "% =");
+    }
+
+    @Test
+    public void constantErrorsAreNotCompiled() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            lines.add("1 0 /");
+            lines.add("2 -1 ^ d");
+            lines.add("3 4 5 - - 0 / =");
+        }
+        assertSameOutput(lines, session -> { });
+        SRPN session = run(lines, 1, s -> { }, new MemoryOutputSink());
+        assertSame(CompiledProgram.INTERPRETED, session.getProgramCache().get("1 0 /").compiled());
+    }
+
+    @Test
+    public void printsUnsaturatedLiterals() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            lines.add("99999999999 =");
+            lines.add("-99999999999 = d");
+            lines.add("3000000000 1 + =");
+            lines.add("2147483647 1 + = -2147483648 1 - =");
+            lines.add("d");
+            lines.add("+ + + + =");
+        }
+        assertSameOutput(lines, session -> { });
+        assertCompiled(lines, "99999999999 =");
+    }
+
+    @Test
+    public void foldedRuns() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            lines.add("3 4 + 5 * =");
+            lines.add("1 2 + 3 + d");
+            lines.add("2 3 ^ 4 5 * 6 7 8 + + +");
+        }
+        // Close to the limit, a folded run has to execute as written to report the overflow where it happens
+        lines.add("1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18");
+        for (int i = 0; i < 4; i++) {
+            lines.add("1 2 3 4 5 6 + + + + + =");
+            lines.add("d");
+            lines.add("+ + + + + + =");
+        }
+        assertSameOutput(lines, session -> { });
+        assertSameOutput(lines, session -> session.setConstantFolding(false));
+        assertCompiled(lines, "3 4 + 5 * =");
+    }
+
+    @Test
+    public void deepStack() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            lines.add("1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 21 22 23 24 25");
+            lines.add("* - + =");
+        }
+        lines.add("d");
+        for (int i = 0; i < 40; i++) {
+            lines.add("+ + + + + + + + + + + + + + + + + + + + + + + + =");
+        }
+        lines.add("d");
+        assertSameOutput(lines, session -> session.setDeepStack(1000));
+        assertSameOutput(lines, session -> session.setDeepStack(100));
+        assertCompiled(lines, "* - + =", session -> session.setDeepStack(1000));
+    }
+
+    @Test
+    public void persistentStack() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lines.add("1 2 3 4 5");
+            lines.add("+ * 2 ^ =");
+            lines.add("d");
+        }
+        // Taking a snapshot moves the stack to a PersistentOperandStack
+        assertSameOutput(lines, session -> session.snapshot());
+        assertSameOutput(lines, session -> session.setUndoHistory(4));
+        assertCompiled(lines, "+ * 2 ^ =", session -> session.snapshot());
+
+        MemoryOutputSink interpreted = new MemoryOutputSink();
+        MemoryOutputSink compiled = new MemoryOutputSink();
+        SRPN interpretedParent = run(lines.subList(0, 6), 0, s -> { }, new MemoryOutputSink());
+        SRPN compiledParent = run(lines.subList(0, 6), 1, s -> { }, new MemoryOutputSink());
+        SRPN interpretedFork = interpretedParent.fork(interpreted);
+        SRPN compiledFork = compiledParent.fork(compiled);
+        for (String line : lines) {
+            interpretedFork.processCommand(line);
+            compiledFork.processCommand(line);
+        }
+        assertEquals(interpreted.toString(), compiled.toString());
+    }
+
+    @Test
+    public void linesTooLongForOneMethodAreInterpreted() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lines.add("1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1");
+        }
+        // Each operator reads and saturates its operands, so 300 of them need branches further than 32 KB
+        StringBuilder longLine = new StringBuilder("1 2");
+        for (int i = 0; i < 300; i++) {
+            longLine.append(" +");
+        }
+        StringBuilder longerLine = new StringBuilder("1 2");
+        for (int i = 0; i < 1000; i++) {
+            longerLine.append(" +");
+        }
+        for (int i = 0; i < 3; i++) {
+            lines.add(longLine + " =");
+            lines.add(longerLine + " =");
+        }
+        assertSameOutput(lines, session -> session.setDeepStack(2000));
+        assertSameOutput(lines, session -> { });
+        SRPN session = run(lines, 1, s -> s.setDeepStack(2000), new MemoryOutputSink());
+        assertSame(CompiledProgram.INTERPRETED, session.getProgramCache().get(longLine + " =").compiled());
+        assertSame(CompiledProgram.INTERPRETED, session.getProgramCache().get(longerLine + " =").compiled());
+    }
+
+    @Test
+    public void randomLines() {
+        Random random = new Random(22);
+        String[] pieces = {"0", "1", "2", "3", "7", "-1", "-5", "100", "2147483647", "-2147483648", "99999999999",
+            "+", "-", "*", "/", "%", "^", "=", "d", "r", "+ +", "1 +", "2 *", "0 /"};
+        for (int session = 0; session < 300; session++) {
+            String[] pool = new String[6];
+            for (int i = 0; i < pool.length; i++) {
+                StringBuilder line = new StringBuilder();
+                int length = 1 + random.nextInt(12);
+                for (int j = 0; j < length; j++) {
+                    line.append(pieces[random.nextInt(pieces.length)]).append(' ');
+                }
+                pool[i] = line.toString().trim();
+            }
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                lines.add(pool[random.nextInt(pool.length)]);
+            }
+            assertSameOutput(lines, s -> { });
+        }
+    }
+
+    /**
+     * Checks that the lines give the same output interpreted and compiled, on sessions set up the same way.
+     */
+    private static void assertSameOutput(List<String> lines, Consumer<SRPN> setUp) {
+        MemoryOutputSink interpreted = new MemoryOutputSink();
+        MemoryOutputSink compiled = new MemoryOutputSink();
+        SRPN interpretedSession = run(lines, 0, setUp, interpreted);
+        SRPN compiledSession = run(lines, 1, setUp, compiled);
+        assertEquals(interpreted.toString(), compiled.toString(), String.join("\n", lines));
+        assertEquals(interpretedSession.isTerminated(), compiledSession.isTerminated());
+    }
+
+    /**
+     * Checks that a line of the session was compiled to a hidden class.
+     */
+    private static void assertCompiled(List<String> lines, String line) {
+        assertCompiled(lines, line, s -> { });
+    }
+
+    /**
+     * Checks that a line of the session, set up as given, was compiled to a hidden class.
+     */
+    private static void assertCompiled(List<String> lines, String line, Consumer<SRPN> setUp) {
+        SRPN session = run(lines, 1, setUp, new MemoryOutputSink());
+        Program program = session.getProgramCache().get(line);
+        assertTrue(program != null, line);
+        CompiledProgram compiled = program.compiled();
+        assertTrue(compiled != null, line);
+        assertNotSame(CompiledProgram.INTERPRETED, compiled, line);
+    }
+
+    /**
+     * Runs the lines through processCommand, compiling them after the given number of executions, or never if it is 0.
+     */
+    private static SRPN run(List<String> lines, int compileThreshold, Consumer<SRPN> setUp, MemoryOutputSink out) {
+        SRPN session = new SRPN(Constants.PROGRAM_CACHE_SIZE, out);
+        session.setCompileThreshold(compileThreshold);
+        setUp.accept(session);
+        for (String line : lines) {
+            session.processCommand(line);
+        }
+        if (compileThreshold == 0) {
+            for (String line : lines) {
+                Program program = session.getProgramCache().get(line);
+                assertNull(program == null ? null : program.compiled(), line);
+            }
+        }
+        return session;
+    }
+}
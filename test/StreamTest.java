@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for SRPN.processStream against processCommand on the same lines, in particular long
+ * merged tokens whose binary operators are counted once the stack cannot use them, and for
+ * the lines it gives up on rather than hold in memory.
+ */
+
+public class StreamTest {
+
+    @Test
+    public void longMergedTokensMatchLines() throws IOException {
+        Random random = new Random(13);
+        String[] alphabets = {"+-", "*/", "/^", "+-*/%^", "+-*/^rd=", "+-<>&|!~", "!~"};
+        for (int session = 0; session < 400; session++) {
+            boolean extended = random.nextBoolean();
+            int deepStack = random.nextInt(4) == 0 ? 30 + random.nextInt(40) : 0;
+            StringBuilder input = new StringBuilder();
+            for (int line = random.nextInt(4); line >= 0; line--) {
+                String operators = alphabets[random.nextInt(alphabets.length)];
+                if (!extended) {
+                    operators = operators.replaceAll("[<>&|!~]", "");
+                }
+                if (operators.isEmpty()) {
+                    operators = "+-";
+                }
+                for (int i = random.nextInt(2000); i >= 0; i--) {
+                    if (random.nextInt(4) == 0) {
+                        input.append(random.nextInt(7) - 2);
+                    } else {
+                        input.append(operators.charAt(random.nextInt(operators.length())));
+                    }
+                }
+                input.append("\nd\n");
+            }
+            String text = input.toString();
+            assertEquals(lines(text, extended, deepStack), stream(text, extended, deepStack), text);
+        }
+    }
+
+    @Test
+    public void commandsAfterCountedOperators() throws IOException {
+        StringBuilder line = new StringBuilder("1");
+        for (int i = 0; i < 30; i++) {
+            line.append("+1-1");
+        }
+        String text = line + "r d\n" + line + "r+-+-d\n";
+        assertEquals(lines(text, false, 0), stream(text, false, 0));
+        assertEquals(lines(text + "1\n", true, 0), stream(text + "1\n", true, 0));
+    }
+
+    @Test
+    public void reportsUnrecognisedWhereTheyOccur() throws IOException {
+        assertEquals("Unrecognised operator or operand \"x\".\n1\n2\n", lines("1 = x 2 =\n", false, 0));
+        assertEquals("1\nUnrecognised operator or operand \"x\".\n2\n", stream("1 = x 2 =\n", false, 0));
+    }
+
+    @Test
+    public void skipsLinesHoldingTooMuch() throws IOException {
+        StringBuilder comment = new StringBuilder("1 2 #");
+        StringBuilder commands = new StringBuilder("3 4");
+        for (int i = 0; i < Constants.STREAM_HOLD_LIMIT; i++) {
+            comment.append(" 3");
+            commands.append("rd");
+        }
+        assertEquals("Line too long.\n3\n", stream(comment + "\n+ =\n", false, 0));
+        assertEquals("Line too long.\n7\n", stream(commands + "\n+ =\n", false, 0));
+    }
+
+    private static String lines(String text, boolean extended, int deepStack) {
+        MemoryOutputSink out = new MemoryOutputSink();
+        SRPN session = session(out, extended, deepStack);
+        for (String line : text.split("\n")) {
+            if (!session.isTerminated()) {
+                session.processCommand(line);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String stream(String text, boolean extended, int deepStack) throws IOException {
+        MemoryOutputSink out = new MemoryOutputSink();
+        session(out, extended, deepStack).processStream(new StringReader(text));
+        return out.toString();
+    }
+
+    private static SRPN session(MemoryOutputSink out, boolean extended, int deepStack) {
+        OperatorRegistry operators = extended ? OperatorRegistry.extended() : OperatorRegistry.standard();
+        SRPN session = new SRPN(Constants.PROGRAM_CACHE_SIZE, out, operators);
+        if (deepStack > 0) {
+            session.setDeepStack(deepStack);
+        }
+        return session;
+    }
+}